@@ -17,43 +17,188 @@
 
 package felixwiemuth.lincal;
 
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import felixwiemuth.lincal.data.CEntry;
+import felixwiemuth.lincal.data.CalendarDiskCache;
+import felixwiemuth.lincal.data.CalendarMemoryCache;
 import felixwiemuth.lincal.data.LinCal;
 import felixwiemuth.lincal.data.LinCalConfig;
 import felixwiemuth.lincal.data.LinCalConfigStore;
+import felixwiemuth.lincal.data.NotificationTimes;
+import felixwiemuth.lincal.parser.CalendarInput;
 import felixwiemuth.lincal.parser.LinCalParser;
 import felixwiemuth.lincal.parser.UnsupportedUriException;
+import felixwiemuth.lincal.util.ZoneOffsets;
 import felixwiemuth.linearfileparser.ParseException;
 
 import static felixwiemuth.lincal.util.Util.showErrorDialog;
 
 /**
  * This is the single way calendars should be retrieved from, added to and removed from the
- * configuration. It serves as a cache, only parsing calendar files on demand and then keeping them.
+ * configuration. It serves as a cache, only parsing calendar files on demand and then keeping them
+ * within a memory budget (see {@link CalendarMemoryCache}), evicted calendars are loaded again
+ * when requested.
  * The instance of this class may be cleared at any time by the runtime system. Calendars can be
  * accessed by the position in the order they have been added or by their unique id.
+ * <p>
+ * This class is used concurrently by the UI and {@link NotificationService}. Configurations are
+ * never modified once obtained from this class: they are snapshots, changes are made with {@link
+ * #updateConfig(Context, int, ConfigUpdate)}, which replaces the configuration by a changed copy
+ * and saves it. Loading a calendar is done holding a lock for its id, so that it is loaded only
+ * once when requested by multiple threads.
+ * <p>
+ * Loaded calendars are reloaded when their file has changed, which is detected by the file's size
+ * and modification time (see {@link CalendarInput#stamp(String, Context)}). This is checked by
+ * {@link #checkForChangesAsync(Context, int)} and, at most every {@link #CHANGE_CHECK_INTERVAL}
+ * milliseconds per calendar, when getting a calendar with {@link #getCalendarById(Context, int)}.
+ * Listeners registered with {@link #addOnCalendarChangedListener(OnCalendarChangedListener)} are
+ * notified when a calendar has been reloaded.
  *
  * @author Felix Wiemuth
  */
 public class Calendars {
-    private static Calendars instance;
-    private LinCalConfigStore configStore;
+    /**
+     * Loads calendars in the background, see {@link #getCalendarByIdAsync(Context, int,
+     * OnCalendarLoadedListener)}.
+     */
+    private static final ExecutorService loadExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CalendarLoader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Minimum time in milliseconds between two checks for changes of a calendar file when getting
+     * the calendar with {@link #getCalendarById(Context, int)}, so that repeated calls (e.g. by
+     * {@link NotificationService}) do not query the file each time.
+     */
+    private static final long CHANGE_CHECK_INTERVAL = 60 * 1000;
+    /**
+     * Kept independent of the instance, which might be replaced (see {@link #invalidate()}).
+     */
+    private static final List<OnCalendarChangedListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    private static volatile Calendars instance;
+    /**
+     * Guards {@link #configStore} (the list of configurations and writing it to the file).
+     */
+    private final Object configLock = new Object();
+    private final LinCalConfigStore configStore;
+    /**
+     * Locks for loading calendars and adding them to {@link #calendarsById}, by id (see {@link
+     * #lockFor(int)}). They are held while parsing and therefore not taken on the main thread.
+     * A lock is kept when its calendar is removed, as ids are not reused and removing is rare.
+     */
+    private final ConcurrentMap<Integer, Lock> calendarLocks = new ConcurrentHashMap<>();
     /**
      * NOTE: It would be enough to load every calendar file once but as adding the same calendar
      * file multiple times is not a usual use case we choose the simpler way of loading once per id.
      */
-    private final Map<Integer, LinCal> calendarsById = new HashMap<>();
-    private final Map<Integer, LinCalConfig> configsById = new HashMap<>();
+    private final CalendarMemoryCache calendarsById = new CalendarMemoryCache();
+    /**
+     * Parser checkpoints for the calendars in {@link #calendarsById} (if available), used to only
+     * parse lines appended to a calendar file when reloading it.
+     */
+    private final Map<Integer, LinCalParser.Checkpoint> checkpointsById = new ConcurrentHashMap<>();
+    /**
+     * Stamps of the calendar files taken before loading the calendars in {@link #calendarsById}.
+     */
+    private final Map<Integer, CalendarInput.Stamp> stampsById = new ConcurrentHashMap<>();
+    /**
+     * Times (see {@link SystemClock#elapsedRealtime()}) of the last checks for changes of the
+     * calendar files of the calendars in {@link #calendarsById}.
+     */
+    private final Map<Integer, Long> checkedById = new ConcurrentHashMap<>();
+    private final Map<Integer, LinCalConfig> configsById = new ConcurrentHashMap<>();
+    /**
+     * Listeners waiting for calendars being loaded in the background (only accessed on the main
+     * thread).
+     */
+    private final Map<Integer, List<OnCalendarLoadedListener>> pendingLoads = new HashMap<>();
+
+    /**
+     * Receives a calendar loaded by {@link #getCalendarByIdAsync(Context, int,
+     * OnCalendarLoadedListener)}.
+     */
+    public interface OnCalendarLoadedListener {
+        /**
+         * Called on the main thread.
+         *
+         * @param calendar the calendar or {@code null} if there was an error loading it (which has
+         *                 been shown already)
+         */
+        void onCalendarLoaded(LinCal calendar);
+    }
+
+    /**
+     * Receives calendars which have been reloaded because their file has changed.
+     */
+    public interface OnCalendarChangedListener {
+        /**
+         * Called on the main thread.
+         *
+         * @param id       the id of the calendar
+         * @param calendar the new version of the calendar
+         */
+        void onCalendarChanged(int id, LinCal calendar);
+    }
+
+    /**
+     * A change to a calendar's configuration, see {@link #updateConfig(Context, int,
+     * ConfigUpdate)}.
+     */
+    public interface ConfigUpdate {
+        /**
+         * @param config a copy of the current configuration to be changed
+         */
+        void apply(LinCalConfig config);
+    }
+
+    /**
+     * The outcome of loading a calendar file.
+     */
+    private static class LoadResult {
+        private final String path;
+        private final CalendarInput.Stamp stamp; // taken before loading, null if not available
+        private final LinCal calendar; // null if there was an error
+        private final LinCalParser.Checkpoint checkpoint;
+        private final Exception error;
+
+        private LoadResult(String path, CalendarInput.Stamp stamp, LinCal calendar, LinCalParser.Checkpoint checkpoint, Exception error) {
+            this.path = path;
+            this.stamp = stamp;
+            this.calendar = calendar;
+            this.checkpoint = checkpoint;
+            this.error = error;
+        }
+    }
 
     private Calendars(Context context) {
         configStore = new LinCalConfigStore(context);
@@ -72,17 +217,26 @@ public class Calendars {
      * @return
      */
     public static Calendars getInstance(Context context) {
-        if (instance == null) {
-            instance = new Calendars(context);
+        Calendars calendars = instance;
+        if (calendars == null) {
+            synchronized (Calendars.class) {
+                calendars = instance;
+                if (calendars == null) {
+                    calendars = new Calendars(context);
+                    instance = calendars;
+                }
+            }
         }
-        return instance;
+        return calendars;
     }
 
     /**
      * @return
      */
     public int getCalendarCount() {
-        return configStore.getEntries().size();
+        synchronized (configLock) {
+            return configStore.getEntries().size();
+        }
     }
 
     /**
@@ -94,16 +248,16 @@ public class Calendars {
      * @return the calendar from cache or {@code null} if there was an error loading it
      */
     public LinCal getCalendarByPos(Context context, int pos) {
-        try {
-            return getCalendarById(context, configStore.getEntries().get(pos).getId());
-        } catch (IndexOutOfBoundsException ex) {
-            throw new RuntimeException("Illegal calendar position used.");
-        }
+        return getCalendarById(context, getConfigByPos(pos).getId());
     }
 
     /**
-     * Get the calendar with the given id. Returns the calendar from cache if already present or
-     * loads it otherwise, updating the config with values from the calendar.
+     * Get the calendar with the given id. Returns the calendar from cache if already present (and
+     * its file has not changed, otherwise it is reloaded; this is checked at most every {@link
+     * #CHANGE_CHECK_INTERVAL} milliseconds) or loads it otherwise, updating the config with values
+     * from the calendar. The notification times of its entries (see {@link
+     * #getNotificationMillis(LinCal, int, LinCalConfig)}) are calculated if not present for the
+     * current configuration.
      *
      * @param context
      * @param id
@@ -111,37 +265,353 @@ public class Calendars {
      * loaded again on next call of this method)
      */
     public LinCal getCalendarById(Context context, int id) {
-        if (calendarsById.get(id) == null) {
-            LinCalConfig config = getConfigById(id);
-            LinCal calendar = loadCalendar(context, config.getCalendarFile());
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            LinCal calendar = reloadIfChanged(context, id, false); // might have been loaded by another thread in the meantime
             if (calendar == null) {
-                config.setNotificationsEnabled(false); // disable notifications to avoid further error notifications when running the service (which can't process the calendar anyway)
-                save(context);
+                calendar = loadCalendarById(context, id, null, null);
             } else {
-                calendarsById.put(id, calendar);
-                // The following settings are overridden by the calendar's values but should not be saved (in case the calendar removes its settings, the previous values are restored)
-                if (calendar.hasForceEntryDisplayModeDate()) {
-                    config.setEntryDisplayModeDate(calendar.getEntryDisplayModeDate());
+                updateNotificationTimes(id, calendar);
+            }
+            return calendar;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Load the calendar with the given id into the cache, updating the config with values from the
+     * calendar. Must be called holding the lock for the id.
+     *
+     * @param context
+     * @param id
+     * @param previous   a previously loaded version of the calendar (can be null)
+     * @param checkpoint the checkpoint obtained when loading {@code previous} (can be null)
+     * @return the calendar or {@code null} if there was an error loading it
+     */
+    private LinCal loadCalendarById(Context context, int id, LinCal previous, LinCalParser.Checkpoint checkpoint) {
+        LoadResult result = load(context, getConfigById(id).getCalendarFile(), previous, checkpoint);
+        return publishLoad(id, result) ? finishLoad(context, id, result) : null;
+    }
+
+    /**
+     * Get the calendar with the given id without blocking. If the calendar is not in the cache, it
+     * is loaded on a background thread and added to the cache there (like by {@link
+     * #getCalendarById(Context, int)}), so that other threads use it as soon as it is loaded.
+     * Requests for a calendar which is already being loaded are served by the same load. Must be
+     * called on the main thread.
+     *
+     * @param context  the context to show errors with (should be the requesting activity)
+     * @param id
+     * @param listener called on the main thread, immediately if the calendar is in the cache
+     */
+    public void getCalendarByIdAsync(final Context context, final int id, OnCalendarLoadedListener listener) {
+        LinCal calendar = calendarsById.get(id);
+        if (calendar != null) {
+            listener.onCalendarLoaded(calendar);
+            return;
+        }
+        List<OnCalendarLoadedListener> listeners = pendingLoads.get(id);
+        if (listeners != null) { // already loading
+            listeners.add(listener);
+            return;
+        }
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        pendingLoads.put(id, listeners);
+        final Context appContext = context.getApplicationContext();
+        final String path = getConfigById(id).getCalendarFile();
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LoadResult result;
+                final boolean present;
+                Lock lock = lockFor(id);
+                lock.lock();
+                try {
+                    LinCal loaded = calendarsById.get(id); // might have been loaded by another thread in the meantime
+                    if (loaded != null) {
+                        result = new LoadResult(path, null, loaded, null, null);
+                        present = true;
+                    } else {
+                        result = load(appContext, path, null, null);
+                        present = publishLoad(id, result);
+                    }
+                } finally {
+                    lock.unlock();
                 }
-                if (calendar.hasForceEntryDisplayModeDescription()) {
-                    config.setEntryDisplayModeDate(calendar.getEntryDisplayModeDescription());
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the requesting activity might be gone, errors are then shown as notification
+                        boolean finishing = context instanceof Activity && ((Activity) context).isFinishing();
+                        LinCal calendar = present ? finishLoad(finishing ? appContext : context, id, result) : null;
+                        for (OnCalendarLoadedListener listener : pendingLoads.remove(id)) {
+                            listener.onCalendarLoaded(calendar);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getCalendarByIdAsync(Context, int, OnCalendarLoadedListener)} for the calendar
+     * at the given position in adding order.
+     *
+     * @param context
+     * @param pos
+     * @param listener
+     */
+    public void getCalendarByPosAsync(Context context, int pos, OnCalendarLoadedListener listener) {
+        getCalendarByIdAsync(context, getConfigByPos(pos).getId(), listener);
+    }
+
+    /**
+     * Check in the background whether the file of the calendar with the given id has changed since
+     * the calendar was loaded and if so, reload it and notify the listeners added with {@link
+     * #addOnCalendarChangedListener(OnCalendarChangedListener)}. Does nothing if the calendar is
+     * not loaded.
+     *
+     * @param context
+     * @param id
+     */
+    public void checkForChangesAsync(Context context, final int id) {
+        final Context appContext = context.getApplicationContext();
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Lock lock = lockFor(id);
+                lock.lock();
+                try {
+                    reloadIfChanged(appContext, id, true);
+                } finally {
+                    lock.unlock();
                 }
             }
+        });
+    }
+
+    /**
+     * Reload the calendar with the given id if it is loaded and its file has changed since. If
+     * the calendar cannot be loaded, the previous version is kept (until the file changes again).
+     * Must be called holding the lock for the id.
+     *
+     * @param context
+     * @param id
+     * @param always  whether to check the file even if it has been checked within the last {@link
+     *                #CHANGE_CHECK_INTERVAL} milliseconds
+     * @return the current version of the calendar or {@code null} if it is not loaded
+     */
+    private LinCal reloadIfChanged(Context context, final int id, boolean always) {
+        LinCal previous = calendarsById.get(id);
+        CalendarInput.Stamp loadedStamp = stampsById.get(id);
+        LinCalConfig config = configsById.get(id);
+        if (previous == null || loadedStamp == null || config == null) {
+            return previous;
+        }
+        long now = SystemClock.elapsedRealtime();
+        Long checked = checkedById.get(id);
+        if (!always && checked != null && now - checked < CHANGE_CHECK_INTERVAL) {
+            return previous;
+        }
+        checkedById.put(id, now);
+        CalendarInput.Stamp stamp = stamp(context, config.getCalendarFile());
+        if (stamp == null || !stamp.isKnown() || stamp.equals(loadedStamp)) {
+            return previous;
+        }
+        LoadResult result = load(context, config.getCalendarFile(), previous, checkpointsById.get(id));
+        if (result.calendar == null) {
+            stampsById.put(id, stamp);
+            return previous;
         }
-        return calendarsById.get(id);
+        putCalendar(id, result);
+        final LinCal calendar = result.calendar;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnCalendarChangedListener listener : changeListeners) {
+                    listener.onCalendarChanged(id, calendar);
+                }
+            }
+        });
+        return calendar;
+    }
+
+    /**
+     * @param listener notified when a loaded calendar has been reloaded because its file has
+     *                 changed
+     */
+    public static void addOnCalendarChangedListener(OnCalendarChangedListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     */
+    public static void removeOnCalendarChangedListener(OnCalendarChangedListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Load a calendar file, the part of loading which can be done on any thread.
+     *
+     * @param context
+     * @param path       simple path or content URI to the calendar file
+     * @param previous   a previously loaded version of the calendar (can be null)
+     * @param checkpoint the checkpoint obtained when loading {@code previous} (can be null)
+     * @return
+     */
+    private static LoadResult load(Context context, String path, LinCal previous, LinCalParser.Checkpoint checkpoint) {
+        CalendarInput.Stamp stamp = stamp(context, path); // taken before reading the file, so that changes while loading are detected later
+        try {
+            return loadCalendar(context, path, stamp, previous, checkpoint);
+        } catch (UnsupportedUriException | IOException | ParseException ex) {
+            return new LoadResult(path, stamp, null, null, ex);
+        }
+    }
+
+    /**
+     * @return the stamp of the calendar file or {@code null} if it cannot be obtained
+     */
+    private static CalendarInput.Stamp stamp(Context context, String path) {
+        try {
+            return CalendarInput.stamp(path, context);
+        } catch (UnsupportedUriException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Add a loaded calendar to the cache, updating the config with values from the calendar. Must
+     * be called holding the lock for the id, on the thread which loaded the calendar.
+     *
+     * @param id
+     * @param result
+     * @return false if the calendar has been removed in the meantime (then nothing is done)
+     */
+    private boolean publishLoad(int id, LoadResult result) {
+        if (!configsById.containsKey(id)) {
+            return false;
+        }
+        if (result.calendar != null) {
+            putCalendar(id, result);
+        }
+        return true;
+    }
+
+    /**
+     * Show the error which occurred when loading a calendar, if any, and disable notifications for
+     * it. Must be called after {@link #publishLoad(int, LoadResult)}, on the main thread if the
+     * error should be shown as a dialog.
+     *
+     * @param context
+     * @param id
+     * @param result
+     * @return the calendar or {@code null} if there was an error
+     */
+    private LinCal finishLoad(Context context, int id, LoadResult result) {
+        if (result.calendar == null) {
+            showLoadError(context, result.path, result.error);
+            updateConfig(context, id, new ConfigUpdate() {
+                @Override
+                public void apply(LinCalConfig config) {
+                    config.setNotificationsEnabled(false); // disable notifications to avoid further error notifications when running the service (which can't process the calendar anyway)
+                }
+            });
+        }
+        return result.calendar;
+    }
+
+    /**
+     * Add a loaded calendar to the cache (replacing a previous version) together with the
+     * notification times of its entries, updating the config with values from the calendar. Must be
+     * called holding the lock for the id.
+     *
+     * @param id
+     * @param result a result with a calendar
+     */
+    private void putCalendar(int id, LoadResult result) {
+        final LinCal calendar = result.calendar;
+        if (result.checkpoint != null) {
+            checkpointsById.put(id, result.checkpoint);
+        } else {
+            checkpointsById.remove(id);
+        }
+        if (result.stamp != null) {
+            stampsById.put(id, result.stamp);
+        } else {
+            stampsById.remove(id);
+        }
+        checkedById.put(id, SystemClock.elapsedRealtime()); // the stamp has been taken when loading
+        // The following settings are overridden by the calendar's values but should not be saved (in case the calendar removes its settings, the previous values are restored)
+        if (calendar.hasForceEntryDisplayModeDate() || calendar.hasForceEntryDisplayModeDescription()) {
+            updateConfig(null, id, new ConfigUpdate() {
+                @Override
+                public void apply(LinCalConfig config) {
+                    if (calendar.hasForceEntryDisplayModeDate()) {
+                        config.setEntryDisplayModeDate(calendar.getEntryDisplayModeDate());
+                    }
+                    if (calendar.hasForceEntryDisplayModeDescription()) {
+                        config.setEntryDisplayModeDate(calendar.getEntryDisplayModeDescription());
+                    }
+                }
+            });
+        }
+        LinCalConfig config = configsById.get(id);
+        calendarsById.put(id, calendar, config == null ? null : calcNotificationTimes(calendar, config, ZoneOffsets.getDefault()));
+    }
+
+    /**
+     * Calculate the notification times of a cached calendar again if its configuration or the time
+     * zone has changed since they were calculated. Must be called holding the lock for the id.
+     *
+     * @param id
+     * @param calendar the calendar in the cache
+     */
+    private void updateNotificationTimes(int id, LinCal calendar) {
+        LinCalConfig config = configsById.get(id);
+        if (config == null || !config.isEarliestNotificationTimeEnabled()) {
+            return;
+        }
+        ZoneOffsets offsets = ZoneOffsets.getDefault();
+        NotificationTimes times = calendarsById.getNotificationTimes(id, calendar);
+        if (times == null || !times.isFor(config.getEarliestNotificationTime().getMinuteOfDay(), offsets)) {
+            calendarsById.put(id, calendar, calcNotificationTimes(calendar, config, offsets));
+        }
+    }
+
+    /**
+     * @param id
+     * @return the lock for loading the calendar with the given id
+     */
+    private Lock lockFor(int id) {
+        Lock lock = calendarLocks.get(id);
+        if (lock == null) {
+            Lock created = new ReentrantLock();
+            lock = calendarLocks.putIfAbsent(id, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
     }
 
     /**
      * Get the configuration of the calendar at the given position in adding order.
      *
      * @param pos
-     * @return
+     * @return a snapshot of the configuration, which must not be modified (use {@link
+     * #updateConfig(Context, int, ConfigUpdate)})
      */
     public LinCalConfig getConfigByPos(int pos) {
-        try {
-            return configStore.getEntries().get(pos);
-        } catch (IndexOutOfBoundsException ex) {
-            throw new RuntimeException("Illegal calendar position used.");
+        synchronized (configLock) {
+            try {
+                return configStore.getEntries().get(pos);
+            } catch (IndexOutOfBoundsException ex) {
+                throw new RuntimeException("Illegal calendar position used.");
+            }
         }
     }
 
@@ -149,13 +619,74 @@ public class Calendars {
      * Get the configuration of the calendar with the given id.
      *
      * @param id
-     * @return
+     * @return a snapshot of the configuration, which must not be modified (use {@link
+     * #updateConfig(Context, int, ConfigUpdate)})
      */
     public LinCalConfig getConfigById(int id) {
-        if (!configsById.containsKey(id)) {
+        LinCalConfig config = configsById.get(id);
+        if (config == null) {
             throw new RuntimeException("Illegal calendar id used.");
         }
-        return configsById.get(id);
+        return config;
+    }
+
+    /**
+     * Change the configuration of the calendar with the given id and save it. The update is
+     * applied to a copy of the current configuration, which then replaces it, so that readers never
+     * see a partially applied update and concurrent updates are not lost.
+     *
+     * @param context the context to save with, or {@code null} to not save the change
+     * @param id
+     * @param update
+     * @return the new configuration or {@code null} if the calendar has been removed
+     */
+    public LinCalConfig updateConfig(Context context, int id, ConfigUpdate update) {
+        synchronized (configLock) {
+            List<LinCalConfig> entries = configStore.getEntries();
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).getId() == id) {
+                    LinCalConfig config = new LinCalConfig(entries.get(i));
+                    update.apply(config);
+                    config.setId(id);
+                    entries.set(i, config);
+                    configsById.put(id, config);
+                    if (context != null) {
+                        configStore.save(context);
+                    }
+                    return config;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Advance the positions of calendars (the index of the next entry to be notified) and save
+     * them. Only the changed positions are written (see {@link LinCalConfigStore#savePositions(Context,
+     * Collection)}), the cost does not depend on the number of calendars. Positions which would not
+     * advance and calendars which have been removed are ignored.
+     *
+     * @param context
+     * @param positions the new positions by calendar id
+     */
+    public void advancePositions(Context context, Map<Integer, Integer> positions) {
+        synchronized (configLock) {
+            List<LinCalConfig> entries = configStore.getEntries();
+            List<LinCalConfig> changed = new ArrayList<>(positions.size());
+            for (int i = 0; i < entries.size(); i++) {
+                Integer pos = positions.get(entries.get(i).getId());
+                if (pos != null && pos > entries.get(i).getPos()) {
+                    LinCalConfig config = new LinCalConfig(entries.get(i));
+                    config.setPos(pos);
+                    entries.set(i, config);
+                    configsById.put(config.getId(), config);
+                    changed.add(config);
+                }
+            }
+            if (!changed.isEmpty()) {
+                configStore.savePositions(context, changed);
+            }
+        }
     }
 
     /**
@@ -163,7 +694,9 @@ public class Calendars {
      * @return
      */
     public boolean calendarFromFileExists(String file) {
-        return configStore.containsCalendarFile(file);
+        synchronized (configLock) {
+            return configStore.containsCalendarFile(file);
+        }
     }
 
     /**
@@ -171,13 +704,17 @@ public class Calendars {
      * {@link NotificationService} for the new calendar.
      *
      * @param context
-     * @param config  the configuration for the new calendar (the id will be overwritten).
+     * @param config  the configuration for the new calendar (the id will be overwritten), which
+     *                must not be modified afterwards
      * @return the id of the new calendar
      */
     public int addCalendar(Context context, LinCalConfig config) {
-        int id = configStore.add(config);
-        configsById.put(id, configStore.getEntries().get(configStore.getEntries().size() - 1));
-        configStore.save(context);
+        int id;
+        synchronized (configLock) {
+            id = configStore.add(config);
+            configsById.put(id, config);
+            configStore.save(context);
+        }
         NotificationService.runWithCalendar(context, id);
         return id;
     }
@@ -195,8 +732,8 @@ public class Calendars {
      */
     public static void addCalendarChecked(final LinCalConfig config, final Context context, final Runnable finish) {
         final Calendars instance = getInstance(context);
-        // First load calendar to check syntax and get information (title)
-        LinCal calendar = loadCalendar(context, config.getCalendarFile());
+        // First load the calendar's header to check its syntax and get information (title, display modes) - the entries are not needed here and will be loaded on first use
+        LinCal calendar = loadCalendarHeader(context, config.getCalendarFile());
         if (calendar == null) {
             return;
         }
@@ -213,7 +750,7 @@ public class Calendars {
         if (config.getEntryDisplayModeDescription() == null) {
             config.setEntryDisplayModeDescription(calendar.getEntryDisplayModeDescription());
         }
-        if (instance.configStore.containsCalendarFile(config.getCalendarFile())) {
+        if (instance.calendarWithFilePresent(config.getCalendarFile())) {
             AlertDialog.Builder builder = new AlertDialog.Builder(context);
             builder.setTitle(R.string.dialog_cal_already_added_title).setMessage(R.string.dialog_cal_already_added_msg).setNegativeButton(R.string.dialog_no, new DialogInterface.OnClickListener() {
                 @Override
@@ -240,23 +777,44 @@ public class Calendars {
      * @param pos
      */
     public void removeCalendarByPos(Context context, int pos) {
-        int id = configStore.getEntries().get(pos).getId();
-        configsById.remove(id);
-        calendarsById.remove(id);
-        configStore.getEntries().remove(pos);
-        save(context);
+        LinCalConfig config;
+        synchronized (configLock) {
+            config = configStore.getEntries().remove(pos);
+            configsById.remove(config.getId());
+            configStore.save(context);
+        }
+        final int id = config.getId();
+        final String path = config.getCalendarFile();
+        final Context appContext = context.getApplicationContext();
+        loadExecutor.execute(new Runnable() { // the lock might be held while the calendar is being loaded
+            @Override
+            public void run() {
+                Lock lock = lockFor(id);
+                lock.lock();
+                try {
+                    calendarsById.remove(id);
+                    checkpointsById.remove(id);
+                    stampsById.remove(id);
+                    checkedById.remove(id);
+                } finally {
+                    lock.unlock();
+                }
+                new CalendarDiskCache(appContext).remove(path);
+            }
+        });
     }
 
     /**
      * Write the current configuration to the configuration file. This is automatically called by
-     * {@link #addCalendar(Context, LinCalConfig)} and {@link #removeCalendarByPos(Context, int)}
-     * but has to be called manually when changing a configuration obtained by {@link
-     * #getConfigByPos(int)} or {@link #getConfigById(int)}.
+     * {@link #addCalendar(Context, LinCalConfig)}, {@link #removeCalendarByPos(Context, int)} and
+     * {@link #updateConfig(Context, int, ConfigUpdate)}.
      *
      * @param context
      */
     public void save(Context context) {
-        configStore.save(context);
+        synchronized (configLock) {
+            configStore.save(context);
+        }
     }
 
     /**
@@ -266,7 +824,9 @@ public class Calendars {
      * @return
      */
     public boolean calendarWithFilePresent(String file) {
-        return configStore.containsCalendarFile(file);
+        synchronized (configLock) {
+            return configStore.containsCalendarFile(file);
+        }
     }
 
     /**
@@ -278,17 +838,77 @@ public class Calendars {
      */
     public static LinCal loadCalendar(Context context, String path) {
         try {
-            return new LinCalParser().parse(path, context);
-        } catch (UnsupportedUriException ex) {
-            showErrorDialog(R.string.dialog_unsupported_URI_title, String.format(context.getString(R.string.dialog_unsupported_URI_msg), ex.getScheme()), true, context);
-        } catch (FileNotFoundException ex) {
+            return loadCalendar(context, path, null, null, null).calendar;
+        } catch (UnsupportedUriException | IOException | ParseException ex) {
+            showLoadError(context, path, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Load a calendar. If a previous version of the calendar
+     * and the corresponding checkpoint are given, only lines appended to the file since are parsed
+     * if possible. Otherwise, the calendar is taken from the {@link CalendarDiskCache} if the file
+     * has not changed since it was cached. Parsed calendars are added to the cache and the cached
+     * version is returned instead, so that the entries are not kept on the heap. The checkpoint is
+     * stored in the cache as well, thus it is also available for calendars taken from the cache.
+     *
+     * @param context
+     * @param path       simple path or content URI to the calendar file
+     * @param stamp      the stamp of the file taken before loading (can be null)
+     * @param previous   a previously loaded version of the calendar (can be null)
+     * @param checkpoint the checkpoint obtained when loading {@code previous} (can be null)
+     * @return the loaded calendar and its checkpoint
+     * @throws UnsupportedUriException
+     * @throws IOException
+     * @throws ParseException
+     */
+    private static LoadResult loadCalendar(Context context, String path, CalendarInput.Stamp stamp, LinCal previous, LinCalParser.Checkpoint checkpoint) throws UnsupportedUriException, IOException, ParseException {
+        CalendarDiskCache cache = new CalendarDiskCache(context);
+        CalendarDiskCache.Fingerprint fingerprint = CalendarDiskCache.fingerprint(path, context);
+        LinCalParser parser = new LinCalParser();
+        LinCal calendar = null;
+        if (previous != null && checkpoint != null) {
+            calendar = parser.parseAppended(path, context, previous, checkpoint);
+        }
+        if (calendar == null) {
+            CalendarDiskCache.Entry cached = cache.get(path, fingerprint);
+            if (cached != null) {
+                return new LoadResult(path, stamp, cached.getCalendar(), cached.getCheckpoint(), null);
+            }
+            calendar = parser.parseParallel(path, context);
+        }
+        cache.put(path, context, fingerprint, calendar, parser.getCheckpoint());
+        CalendarDiskCache.Entry cached = cache.get(path, fingerprint);
+        return new LoadResult(path, stamp, cached != null ? cached.getCalendar() : calendar, parser.getCheckpoint(), null);
+    }
+
+    /**
+     * Load only the header of a calendar and show an error dialog on failure.
+     *
+     * @param context
+     * @param path    simple path or content URI to the calendar file
+     * @return the loaded calendar without entries or {@code null} if there was an error
+     */
+    public static LinCal loadCalendarHeader(Context context, String path) {
+        try {
+            return new LinCalParser().parseHeader(path, context);
+        } catch (UnsupportedUriException | IOException | ParseException ex) {
+            showLoadError(context, path, ex);
+        }
+        return null;
+    }
+
+    private static void showLoadError(Context context, String path, Exception ex) {
+        if (ex instanceof UnsupportedUriException) {
+            showErrorDialog(R.string.dialog_unsupported_URI_title, String.format(context.getString(R.string.dialog_unsupported_URI_msg), ((UnsupportedUriException) ex).getScheme()), true, context);
+        } else if (ex instanceof FileNotFoundException) {
             showErrorDialog(R.string.dialog_file_not_found_title, String.format(context.getString(R.string.dialog_file_not_found_msg), path), true, context);
-        } catch (IOException ex) {
-            showErrorDialog(R.string.dialog_error_title, ex.getMessage(), true, context);
-        } catch (ParseException ex) {
+        } else if (ex instanceof ParseException) {
             showErrorDialog(R.string.dialog_parsing_error_title, ex.getMessage(), true, context);
+        } else {
+            showErrorDialog(R.string.dialog_error_title, ex.getMessage(), true, context);
         }
-        return null;
     }
 
     //TODO consider default configuration
@@ -300,14 +920,75 @@ public class Calendars {
      */
     public static Calendar calcNotificationTime(CEntry entry, LinCalConfig config) {
         Calendar notificationTime = Calendar.getInstance();
-        notificationTime.setTime(entry.getDate().getTime());
-        if (config.isEarliestNotificationTimeEnabled() && config.getEarliestNotificationTime().after(notificationTime)) {
-            notificationTime.set(Calendar.HOUR_OF_DAY, config.getEarliestNotificationTime().getHour());
-            notificationTime.set(Calendar.MINUTE, config.getEarliestNotificationTime().getMinute());
-        }
+        notificationTime.setTimeInMillis(calcNotificationMillis(entry.getTimeInMillis(), config, ZoneOffsets.getDefault()));
         return notificationTime;
     }
 
+    /**
+     * Same as {@link #calcNotificationTime(CEntry, LinCalConfig)} but on milliseconds, without
+     * creating objects.
+     *
+     * @param date    the date of the entry in milliseconds
+     * @param config
+     * @param offsets the offsets of the time zone to use
+     * @return the notification time in milliseconds
+     */
+    public static long calcNotificationMillis(long date, LinCalConfig config, ZoneOffsets offsets) {
+        if (!config.isEarliestNotificationTimeEnabled()) {
+            return date;
+        }
+        int minuteOfDay = offsets.getMinuteOfDay(date);
+        int earliest = config.getEarliestNotificationTime().getMinuteOfDay();
+        if (earliest <= minuteOfDay) {
+            return date;
+        }
+        return offsets.toInstant(offsets.toLocal(date) + (earliest - minuteOfDay) * ZoneOffsets.MINUTE);
+    }
+
+    /**
+     * Calculate the notification times of all entries of a calendar.
+     *
+     * @param calendar
+     * @param config   the calendar's configuration
+     * @param offsets  the offsets of the time zone to use
+     * @return the times or {@code null} if the earliest notification time is disabled (they are the
+     * entries' dates then)
+     */
+    private static NotificationTimes calcNotificationTimes(LinCal calendar, LinCalConfig config, ZoneOffsets offsets) {
+        if (!config.isEarliestNotificationTimeEnabled()) {
+            return null;
+        }
+        long[] times = new long[calendar.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = calcNotificationMillis(calendar.getEntryTimeInMillis(i), config, offsets);
+        }
+        return new NotificationTimes(config.getEarliestNotificationTime().getMinuteOfDay(), offsets, times);
+    }
+
+    /**
+     * Get the notification time of an entry. The notification times of all entries are calculated
+     * on a background thread when the calendar is loaded (or requested by {@link
+     * #getCalendarById(Context, int)} after its configuration or the time zone changed) and kept
+     * together with it. If they are not present for the given configuration and the current time
+     * zone, the time of the entry is calculated on its own.
+     *
+     * @param calendar
+     * @param index    the index of the entry
+     * @param config   the calendar's configuration
+     * @return the notification time in milliseconds
+     */
+    public long getNotificationMillis(LinCal calendar, int index, LinCalConfig config) {
+        if (!config.isEarliestNotificationTimeEnabled()) {
+            return calendar.getEntryTimeInMillis(index);
+        }
+        ZoneOffsets offsets = ZoneOffsets.getDefault();
+        NotificationTimes times = calendarsById.getNotificationTimes(config.getId(), calendar);
+        if (times != null && times.isFor(config.getEarliestNotificationTime().getMinuteOfDay(), offsets)) {
+            return times.get(index);
+        }
+        return calcNotificationMillis(calendar.getEntryTimeInMillis(index), config, offsets);
+    }
+
     /**
      * @param entry
      * @param calendarPos
@@ -325,4 +1006,17 @@ public class Calendars {
     public static void invalidate() {
         instance = null;
     }
+
+    /**
+     * Release memory used by loaded calendars, see {@link CalendarMemoryCache#trimMemory(int)}.
+     * Evicted calendars are loaded again when requested.
+     *
+     * @param level as passed to {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public static void trimMemory(int level) {
+        Calendars calendars = instance;
+        if (calendars != null) {
+            calendars.calendarsById.trimMemory(level);
+        }
+    }
 }
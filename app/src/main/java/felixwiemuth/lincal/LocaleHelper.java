@@ -28,6 +28,7 @@ import android.preference.PreferenceManager;
 import java.util.Locale;
 
 import felixwiemuth.lincal.ui.SettingsFragment;
+import felixwiemuth.lincal.util.DateFormats;
 
 /**
  * Manages setting of the app's locale.
@@ -68,6 +69,7 @@ public class LocaleHelper {
             locale = new Locale(localeSpec);
         }
         Locale.setDefault(locale);
+        DateFormats.reset();
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             return updateResources(context, locale);
         } else {
@@ -25,8 +25,6 @@ import org.acra.ACRA;
 import org.acra.ReportingInteractionMode;
 import org.acra.annotation.ReportsCrashes;
 
-import java.text.DateFormat;
-
 import felixwiemuth.lincal.util.Util;
 
 @ReportsCrashes(
@@ -35,11 +33,6 @@ import felixwiemuth.lincal.util.Util;
         resToastText = R.string.crash_toast_text)
 public class Main extends Application {
 
-    public static final DateFormat dfDay = DateFormat.getDateInstance();
-    public static final DateFormat dfTime = DateFormat.getTimeInstance();
-    public static final DateFormat dfDayTime = DateFormat.getDateTimeInstance();
-
-
     @Override
     public void onCreate() {
         super.onCreate();
@@ -49,6 +42,18 @@ public class Main extends Application {
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Calendars.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        Calendars.trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
     @Override
     protected void attachBaseContext(Context base) {
         super.attachBaseContext(LocaleHelper.onAttach(base));
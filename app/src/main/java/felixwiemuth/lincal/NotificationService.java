@@ -27,7 +27,8 @@ import android.net.Uri;
 import android.os.Build;
 import android.support.v4.app.NotificationCompat;
 
-import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
 
 import felixwiemuth.lincal.data.CEntry;
 import felixwiemuth.lincal.data.LinCal;
@@ -56,30 +57,31 @@ public class NotificationService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         calendars = Calendars.getInstance(this);
-        Calendar now = Calendar.getInstance();
-        Calendar nextAlarm = null;
+        long now = System.currentTimeMillis();
+        long nextAlarm = -1;
+        Map<Integer, Integer> positions = new HashMap<>();
         for (int i = 0; i < calendars.getCalendarCount(); i++) {
             LinCalConfig config = calendars.getConfigByPos(i);
             if (config.isNotificationsEnabled()) { // only load calendar if notifications are enabled
                 LinCal cal = calendars.getCalendarByPos(this, i);
                 if (cal != null) { // if the calendar could not be loaded, skip it (this will also skip scheduling of next notifications for this calendar)
-                    Calendar nextTime = processCalendar(cal, config, now);
-                    if (nextAlarm == null || (nextTime != null && nextTime.before(nextAlarm))) {
+                    long nextTime = processCalendar(cal, config, now, positions);
+                    if (nextAlarm == -1 || (nextTime != -1 && nextTime < nextAlarm)) {
                         nextAlarm = nextTime;
                     }
                 }
             }
         }
-        calendars.save(this);
+        calendars.advancePositions(this, positions);
         // Schedule next processing if there are further entries
-        if (nextAlarm != null) {
+        if (nextAlarm != -1) {
             AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
             Intent processIntent = new Intent(this, NotificationService.class);
             PendingIntent alarmIntent = PendingIntent.getService(this, 0, processIntent, 0);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                alarmManager.setExact(AlarmManager.RTC_WAKEUP, nextAlarm.getTimeInMillis(), alarmIntent);
+                alarmManager.setExact(AlarmManager.RTC_WAKEUP, nextAlarm, alarmIntent);
             } else {
-                alarmManager.set(AlarmManager.RTC_WAKEUP, nextAlarm.getTimeInMillis(), alarmIntent);
+                alarmManager.set(AlarmManager.RTC_WAKEUP, nextAlarm, alarmIntent);
             }
         }
         stopSelf();
@@ -91,20 +93,24 @@ public class NotificationService extends IntentService {
      *
      * @param cal
      * @param config
-     * @param now
-     * @return
+     * @param now       the current time in milliseconds
+     * @param positions receives the new position of the calendar if it has changed
+     * @return the next notification time in milliseconds or -1 if there are no further entries
      */
-    private Calendar processCalendar(LinCal cal, LinCalConfig config, Calendar now) {
+    private long processCalendar(LinCal cal, LinCalConfig config, long now, Map<Integer, Integer> positions) {
         int pos = config.getPos();
-        while (pos < cal.size() && (!Calendars.calcNotificationTime(cal.get(pos), config).after(now))) {
+        int end = cal.indexAfter(now); // notification times are not before the entries' dates, thus later entries cannot be due
+        while (pos < end && calendars.getNotificationMillis(cal, pos, config) <= now) {
             sendNotification(cal.get(pos), pos, config);
             pos++;
         }
-        config.setPos(pos);
+        if (pos != config.getPos()) {
+            positions.put(config.getId(), pos);
+        }
         if (pos < cal.size()) {
-            return Calendars.calcNotificationTime(cal.get(pos), config);
+            return calendars.getNotificationMillis(cal, pos, config);
         } else {
-            return null;
+            return -1;
         }
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Entries stored on the heap, in an array of dates and columns of descriptions and links.
+ *
+ * @author Felix Wiemuth
+ */
+class ArrayEntryStore extends EntryStore {
+    private final long[] dates; // in milliseconds
+    private final StringColumn descriptions;
+    private final StringColumn links;
+
+    ArrayEntryStore(long[] dates, StringColumn descriptions, StringColumn links) {
+        this.dates = dates;
+        this.descriptions = descriptions;
+        this.links = links;
+    }
+
+    @Override
+    int size() {
+        return dates.length;
+    }
+
+    @Override
+    long getDate(int i) {
+        return dates[i];
+    }
+
+    @Override
+    String getDescription(int i) {
+        return descriptions.get(i);
+    }
+
+    @Override
+    String getLink(int i) {
+        return links.get(i);
+    }
+
+    @Override
+    ByteBuffer getDescriptionUtf8(int i) {
+        return descriptions.getUtf8(i);
+    }
+
+    @Override
+    ByteBuffer getLinkUtf8(int i) {
+        return links.getUtf8(i);
+    }
+
+    @Override
+    long getMemorySize() {
+        return StringColumn.arraySize(8L * dates.length) + descriptions.getMemorySize() + links.getMemorySize();
+    }
+}
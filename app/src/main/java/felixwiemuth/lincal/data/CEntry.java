@@ -25,10 +25,12 @@ import android.content.Intent;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Calendar;
 
-import felixwiemuth.lincal.Main;
 import felixwiemuth.lincal.R;
+import felixwiemuth.lincal.util.DateFormats;
 
 /**
  * Represents one calendar in the list of calendars.
@@ -36,14 +38,18 @@ import felixwiemuth.lincal.R;
  * @author Felix Wiemuth
  */
 public class CEntry implements Comparable<CEntry> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    private final Calendar date;
-    private final String description;
-    private final String link;
+    private final long date; // in milliseconds
+    private final byte[] text; // UTF-8 encoded description followed by link, null if created with strings
+    private final int descriptionLength; // in bytes, -1 if not encoded or no description
+    private final int linkLength; // in bytes, -1 if not encoded or no link
+    private String description; // decoded on first access
+    private String link; // decoded on first access
 
     public static class Builder {
 
-        private Calendar date;
+        private long date;
         private String description;
         private String link;
 
@@ -51,8 +57,12 @@ public class CEntry implements Comparable<CEntry> {
         }
 
         public Builder date(final Calendar date) {
-            this.date = Calendar.getInstance();
-            this.date.setTime(date.getTime());
+            this.date = date.getTimeInMillis();
+            return this;
+        }
+
+        public Builder date(final long date) {
+            this.date = date;
             return this;
         }
 
@@ -76,36 +86,104 @@ public class CEntry implements Comparable<CEntry> {
     }
 
     public CEntry(final Calendar date, final String description, final String link) {
+        this(date.getTimeInMillis(), description, link);
+    }
+
+    /**
+     * @param date        the date in milliseconds
+     * @param description
+     * @param link
+     */
+    public CEntry(final long date, final String description, final String link) {
         this.date = date;
+        this.text = null;
+        this.descriptionLength = -1;
+        this.linkLength = -1;
         this.description = description;
         this.link = link;
     }
 
+    /**
+     * Create an entry with description and link given UTF-8 encoded. They are only decoded when
+     * accessed.
+     *
+     * @param date              the date in milliseconds
+     * @param text              the description followed by the link (not copied, must not be
+     *                          modified afterwards)
+     * @param descriptionLength length of the description in bytes or -1 if there is none
+     * @param linkLength        length of the link in bytes or -1 if there is none
+     */
+    public CEntry(final long date, final byte[] text, final int descriptionLength, final int linkLength) {
+        this.date = date;
+        this.text = text;
+        this.descriptionLength = descriptionLength;
+        this.linkLength = linkLength;
+    }
+
     @Override
     public int compareTo(@NonNull CEntry another) {
-        return date.compareTo(another.date);
+        return date < another.date ? -1 : (date == another.date ? 0 : 1);
     }
 
+    /**
+     * @return a new calendar set to the entry's date
+     */
     public Calendar getDate() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        return calendar;
+    }
+
+    /**
+     * @return the entry's date in milliseconds
+     */
+    public long getTimeInMillis() {
         return date;
     }
 
     public String getDateStr() {
-        return Main.dfDay.format(date.getTime());
+        return DateFormats.formatDay(date);
     }
 
     public String getDateTimeStr() {
-        return Main.dfDayTime.format(date.getTime());
+        return DateFormats.formatDayTime(date);
     }
 
     public String getDescription() {
+        if (description == null && descriptionLength != -1) {
+            description = new String(text, 0, descriptionLength, UTF_8);
+        }
         return description;
     }
 
     public String getLink() {
+        if (link == null && linkLength != -1) {
+            link = new String(text, Math.max(descriptionLength, 0), linkLength, UTF_8);
+        }
         return link;
     }
 
+    /**
+     * @return the UTF-8 encoding of the description (the remaining bytes of the buffer, which must
+     * not be modified) or {@code null} if there is no description
+     */
+    ByteBuffer getDescriptionUtf8() {
+        if (text == null) {
+            return description == null ? null : ByteBuffer.wrap(description.getBytes(UTF_8));
+        }
+        return descriptionLength == -1 ? null : ByteBuffer.wrap(text, 0, descriptionLength);
+    }
+
+    /**
+     * @return the UTF-8 encoding of the link (see {@link #getDescriptionUtf8()})
+     */
+    ByteBuffer getLinkUtf8() {
+        if (text == null) {
+            return link == null ? null : ByteBuffer.wrap(link.getBytes(UTF_8));
+        }
+        return linkLength == -1 ? null : ByteBuffer.wrap(text, Math.max(descriptionLength, 0), linkLength);
+    }
+
     public void open(Context context) {
         Intent intent = new Intent("android.intent.action.VIEW", Uri.parse(getLink()));
         try {
@@ -124,7 +202,7 @@ public class CEntry implements Comparable<CEntry> {
      * @return
      */
     public boolean isDue(LinCalConfig config, Calendar now) {
-        return (!getDate().after(now) && !config.getEarliestNotificationTime().after(now));
+        return (date <= now.getTimeInMillis() && !config.getEarliestNotificationTime().after(now));
     }
 
     private void showNonLinkEntryAsDialog(Context context) {
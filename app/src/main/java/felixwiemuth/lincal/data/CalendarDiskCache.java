@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import android.content.Context;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import felixwiemuth.lincal.parser.CalendarInput;
+import felixwiemuth.lincal.parser.LinCalParser;
+import felixwiemuth.lincal.parser.UnsupportedUriException;
+
+/**
+ * Persistent cache of parsed calendars in the app's cache directory, stored in the format of
+ * {@link LinCalBinaryFormat}. An entry is only used for a calendar file with the same path, size
+ * and modification time as the file the entry was created from, the file is not read for this. If
+ * size and modification time of a file are not known (see {@link CalendarInput.Stamp#isKnown()}),
+ * its content is compared by a hash instead. The total size of the cache is limited, the least recently used entries are removed first. Calendars
+ * are returned backed by a mapping of the entry's file (see {@link LinCalBinaryFormat#map(ByteBuffer)}),
+ * entries are replaced by renaming new files over them, thus a calendar stays valid when its
+ * entry is updated or removed. Together with a calendar, the parser's checkpoint is stored (see
+ * {@link LinCalParser.Checkpoint}), so that lines appended to the calendar file later can be parsed
+ * incrementally also for calendars loaded from the cache. Failing to read or write the cache is
+ * not an error, the calendar then just has to be parsed.
+ *
+ * @author Felix Wiemuth
+ */
+public class CalendarDiskCache {
+    private static final String DIRECTORY = "calendars";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4C434348; // "LCCH", identifies the version of the header
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Maximum total size of the entries in bytes.
+     */
+    private static final long MAX_SIZE = 32 * 1024 * 1024;
+    /**
+     * Age in milliseconds after which a temporary file is assumed to be left over by a process
+     * which was killed while writing it.
+     */
+    private static final long STALE_TMP_AGE = 24 * 60 * 60 * 1000;
+
+    private final File directory;
+
+    /**
+     * Identifies a version of a calendar file by its stamp (see {@link CalendarInput#stamp(String,
+     * Context)}) or, if the stamp is not known, by the hash of its content.
+     */
+    public static class Fingerprint {
+        private final String path;
+        private final Context context;
+        private final CalendarInput.Stamp stamp;
+        private HashCode hash; // computed on first use
+
+        private Fingerprint(String path, Context context, CalendarInput.Stamp stamp) {
+            this.path = path;
+            this.context = context;
+            this.stamp = stamp;
+        }
+
+        /**
+         * @return the hash of the file's content, which is read when calling this method the
+         * first time
+         */
+        private HashCode hash() throws UnsupportedUriException, IOException {
+            if (hash == null) {
+                ByteBuffer in = CalendarInput.read(path, context);
+                hash = CalendarInput.hash(in, in.limit());
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * A calendar obtained from the cache.
+     */
+    public static class Entry {
+        private final LinCal calendar;
+        private final LinCalParser.Checkpoint checkpoint;
+
+        private Entry(LinCal calendar, LinCalParser.Checkpoint checkpoint) {
+            this.calendar = calendar;
+            this.checkpoint = checkpoint;
+        }
+
+        /**
+         * @return the calendar (backed by the entry's file)
+         */
+        public LinCal getCalendar() {
+            return calendar;
+        }
+
+        /**
+         * @return the checkpoint obtained when parsing the calendar or {@code null} if there is none
+         */
+        public LinCalParser.Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+    }
+
+    public CalendarDiskCache(Context context) {
+        directory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * Determine the fingerprint of the current version of a calendar file. Only its stamp is
+     * obtained here, the file is not read.
+     *
+     * @param path    simple path or content URI to the calendar file
+     * @param context
+     * @return
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     */
+    public static Fingerprint fingerprint(String path, Context context) throws UnsupportedUriException {
+        return new Fingerprint(path, context, CalendarInput.stamp(path, context));
+    }
+
+    /**
+     * Get the cached calendar for the given version of a calendar file.
+     *
+     * @param path        simple path or content URI to the calendar file
+     * @param fingerprint the fingerprint of the current version of the file
+     * @return the entry or {@code null} if there is no valid entry
+     */
+    public Entry get(String path, Fingerprint fingerprint) {
+        File file = entryFile(path);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            ByteBuffer in = CalendarInput.read(file.getPath(), null);
+            if (!checkHeader(in, path, fingerprint)) {
+                file.delete(); // the calendar file has changed
+                return null;
+            }
+            byte[] checkpoint = readBytes(in);
+            in.position((in.position() + 7) / 8 * 8);
+            LinCal calendar = LinCalBinaryFormat.map(in.slice());
+            file.setLastModified(System.currentTimeMillis()); // mark as recently used
+            return new Entry(calendar, checkpoint.length == 0 ? null : LinCalParser.Checkpoint.read(new DataInputStream(new ByteArrayInputStream(checkpoint))));
+        } catch (UnsupportedUriException | IOException | BufferUnderflowException ex) {
+            file.delete(); // the entry is corrupted or from another version
+            return null;
+        }
+    }
+
+    /**
+     * Store a calendar parsed from the version of the calendar file with the given fingerprint.
+     * Nothing is stored if the file has been changed in the meantime (as far as it can be detected
+     * by its stamp, or by its hash if there is no stamp), as it would not be clear which version
+     * has been parsed.
+     *
+     * @param path        simple path or content URI to the calendar file
+     * @param context
+     * @param fingerprint the fingerprint of the file determined before parsing
+     * @param calendar    the parsed calendar
+     * @param checkpoint  the parser's checkpoint after parsing the calendar (can be null)
+     */
+    public void put(String path, Context context, Fingerprint fingerprint, LinCal calendar, LinCalParser.Checkpoint checkpoint) {
+        File file = entryFile(path);
+        File tmp = null;
+        try {
+            HashCode hash = null; // only needed without a stamp
+            if (fingerprint.stamp.isKnown()) {
+                if (!fingerprint.stamp.equals(CalendarInput.stamp(path, context))) {
+                    return;
+                }
+            } else {
+                hash = fingerprint.hash(); // computed only once for get() and put()
+                if (!hash.equals(fingerprint(path, context).hash())) {
+                    return;
+                }
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            tmp = File.createTempFile(file.getName(), TMP_SUFFIX, directory); // unique, as the same file might be stored concurrently
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                writeHeader(out, path, fingerprint.stamp, hash, checkpoint);
+                LinCalBinaryFormat.write(calendar, out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+        } catch (UnsupportedUriException | IOException ex) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Remove the entry for the given calendar file (if present).
+     *
+     * @param path simple path or content URI to the calendar file
+     */
+    public void remove(String path) {
+        entryFile(path).delete();
+    }
+
+    private File entryFile(String path) {
+        return new File(directory, Hashing.murmur3_128().hashString(path, UTF_8).toString() + LinCalBinaryFormat.EXTENSION);
+    }
+
+    /**
+     * Header of an entry: magic number, the calendar file's path (length and UTF-8 bytes), size,
+     * modification time, content hash (length, 0 if the stamp is known, and bytes), checkpoint
+     * (length, 0 if there is none, and bytes) and padding to a multiple of 8 bytes.
+     */
+    private static void writeHeader(DataOutputStream out, String path, CalendarInput.Stamp stamp, HashCode hash, LinCalParser.Checkpoint checkpoint) throws IOException {
+        out.writeInt(MAGIC);
+        byte[] pathBytes = path.getBytes(UTF_8);
+        out.writeInt(pathBytes.length);
+        out.write(pathBytes);
+        out.writeLong(stamp.getSize());
+        out.writeLong(stamp.getLastModified());
+        byte[] bytes = hash == null ? new byte[0] : hash.asBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        ByteArrayOutputStream checkpointBytes = new ByteArrayOutputStream();
+        if (checkpoint != null) {
+            checkpoint.write(new DataOutputStream(checkpointBytes));
+        }
+        out.writeInt(checkpointBytes.size());
+        checkpointBytes.writeTo(out);
+        while (out.size() % 8 != 0) { // keep the arrays of the calendar aligned
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Compare the header with the fingerprint, leaving the buffer's position at the checkpoint.
+     * If the stamp is known, a matching stamp is trusted. Otherwise, the calendar file is read to
+     * compare its hash.
+     *
+     * @return whether the header matches
+     */
+    private static boolean checkHeader(ByteBuffer in, String path, Fingerprint fingerprint) throws UnsupportedUriException, IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Cache entry of another version");
+            }
+            if (!new String(readBytes(in), UTF_8).equals(path) || in.getLong() != fingerprint.stamp.getSize() || in.getLong() != fingerprint.stamp.getLastModified()) {
+                return false;
+            }
+            byte[] hash = readBytes(in);
+            return fingerprint.stamp.isKnown() || Arrays.equals(hash, fingerprint.hash().asBytes());
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Corrupted cache entry");
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Remove the least recently used entries until the total size is within the limit. Temporary
+     * files are not counted, as they are being written by other threads (stale ones are removed).
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>(files.length);
+        long size = 0;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                if (now - file.lastModified() > STALE_TMP_AGE) {
+                    file.delete();
+                }
+            } else {
+                entries.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= MAX_SIZE) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < entries.size() && size > MAX_SIZE; i++) {
+            size -= entries.get(i).length();
+            entries.get(i).delete();
+        }
+    }
+}
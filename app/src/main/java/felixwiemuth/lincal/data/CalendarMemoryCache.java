@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps loaded calendars in memory within a budget, together with the notification times of their
+ * entries (see {@link NotificationTimes}). Calendars are weighted by the estimated heap they and
+ * their notification times use, the least recently used ones are evicted when the budget is
+ * exceeded. Evicted
+ * calendars are still kept by soft references, so they are only lost if the garbage collector
+ * needs the memory. The cache shrinks on request of the system, see {@link #trimMemory(int)}.
+ *
+ * @author Felix Wiemuth
+ */
+public class CalendarMemoryCache {
+    /**
+     * Estimated heap used by a calendar in addition to its entries (header fields and objects).
+     */
+    private static final long CALENDAR_OVERHEAD = 1024;
+    /**
+     * Fraction of the maximum heap used as default budget.
+     */
+    private static final int DEFAULT_BUDGET_FRACTION = 8;
+
+    private final LruCache<Integer, Entry> calendars; // sizes in KiB
+    private final Map<Integer, SoftReference<Entry>> evicted = new HashMap<>();
+
+    private static class Entry {
+        private final LinCal calendar;
+        private final NotificationTimes notificationTimes; // null if not needed
+
+        private Entry(LinCal calendar, NotificationTimes notificationTimes) {
+            this.calendar = calendar;
+            this.notificationTimes = notificationTimes;
+        }
+    }
+
+    /**
+     * Create a cache with a budget of a fraction of the maximum heap.
+     */
+    public CalendarMemoryCache() {
+        this(Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_FRACTION);
+    }
+
+    /**
+     * @param budget the maximum estimated heap used by the calendars in bytes
+     */
+    public CalendarMemoryCache(long budget) {
+        calendars = new LruCache<Integer, Entry>((int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / 1024))) {
+            @Override
+            protected int sizeOf(Integer id, Entry entry) {
+                long size = entry.calendar.getEntriesMemorySize() + CALENDAR_OVERHEAD;
+                if (entry.notificationTimes != null) {
+                    size += entry.notificationTimes.getMemorySize();
+                }
+                return (int) Math.min(Integer.MAX_VALUE, (size + 1023) / 1024);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer id, Entry oldValue, Entry newValue) {
+                if (evicted) {
+                    CalendarMemoryCache.this.evicted.put(id, new SoftReference<>(oldValue));
+                }
+            }
+        };
+    }
+
+    /**
+     * @param id
+     * @return the calendar with the given id or {@code null} if it is not present (anymore)
+     */
+    public synchronized LinCal get(int id) {
+        Entry entry = getEntry(id);
+        return entry == null ? null : entry.calendar;
+    }
+
+    /**
+     * @param id
+     * @param calendar the calendar the times are requested for
+     * @return the notification times stored with the calendar with the given id or {@code null} if
+     * there are none or the calendar is not present (anymore) in the given version
+     */
+    public synchronized NotificationTimes getNotificationTimes(int id, LinCal calendar) {
+        Entry entry = getEntry(id);
+        return entry == null || entry.calendar != calendar ? null : entry.notificationTimes;
+    }
+
+    private Entry getEntry(int id) {
+        Entry entry = calendars.get(id);
+        if (entry == null) {
+            SoftReference<Entry> reference = evicted.remove(id);
+            if (reference != null) {
+                entry = reference.get();
+                if (entry != null) {
+                    calendars.put(id, entry); // used again
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Add a calendar, replacing the previous version and its notification times.
+     *
+     * @param id
+     * @param calendar
+     * @param notificationTimes the notification times of the calendar's entries (can be null)
+     */
+    public synchronized void put(int id, LinCal calendar, NotificationTimes notificationTimes) {
+        removeCleared();
+        evicted.remove(id);
+        calendars.put(id, new Entry(calendar, notificationTimes));
+    }
+
+    /**
+     * @param id
+     * @return the calendar removed or {@code null} if it was not present (anymore)
+     */
+    public synchronized LinCal remove(int id) {
+        Entry entry = calendars.remove(id);
+        SoftReference<Entry> reference = evicted.remove(id);
+        if (entry == null && reference != null) {
+            entry = reference.get();
+        }
+        return entry == null ? null : entry.calendar;
+    }
+
+    /**
+     * Shrink the cache according to the given level as passed to {@link
+     * ComponentCallbacks2#onTrimMemory(int)}: from {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND}
+     * and on {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} all calendars are evicted (only
+     * kept by soft references), on {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW} the cache is
+     * trimmed to 1/4 and otherwise to 1/2 of the budget. On {@link
+     * ComponentCallbacks2#TRIM_MEMORY_COMPLETE} (the process is likely to be killed soon), also the
+     * soft references are dropped.
+     *
+     * @param level
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            calendars.evictAll();
+            evicted.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            calendars.evictAll();
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            calendars.trimToSize(calendars.maxSize() / 4);
+        } else {
+            calendars.trimToSize(calendars.maxSize() / 2);
+        }
+        removeCleared();
+    }
+
+    private void removeCleared() {
+        Iterator<SoftReference<Entry>> it = evicted.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) {
+                it.remove();
+            }
+        }
+    }
+}
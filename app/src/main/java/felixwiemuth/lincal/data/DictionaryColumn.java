@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link StringColumn} storing each distinct string once in a dictionary, strings are referenced
+ * by their index in the dictionary.
+ *
+ * @author Felix Wiemuth
+ */
+class DictionaryColumn extends StringColumn {
+    private final byte[] bytes;
+    private final int[] offsets; // dictionary string j is bytes[offsets[j]..offsets[j+1])
+    private final int[] indexes; // dictionary index of string i, -1 for null
+
+    private DictionaryColumn(byte[] bytes, int[] offsets, int[] indexes) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.indexes = indexes;
+    }
+
+    /**
+     * See {@link StringColumn.Builder#buildDictionary(int[])}.
+     *
+     * @param bytes   the strings added to the builder
+     * @param offsets string i is {@code bytes[offsets[i]..offsets[i+1])}
+     * @param nulls   the strings which are {@code null}
+     * @param size    the number of strings
+     * @param order   the order of the strings in the column or {@code null}
+     * @return
+     */
+    static DictionaryColumn build(byte[] bytes, int[] offsets, BitSet nulls, int size, int[] order) {
+        Map<ByteBuffer, Integer> dictionary = new HashMap<>();
+        int[] indexes = new int[size];
+        int[] dictionaryOffsets = new int[16];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            int j = order == null ? i : order[i];
+            if (nulls.get(j)) {
+                indexes[i] = -1;
+                continue;
+            }
+            ByteBuffer string = ByteBuffer.wrap(bytes, offsets[j], offsets[j + 1] - offsets[j]);
+            Integer index = dictionary.get(string);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(string, index);
+                length += string.remaining();
+                if (index + 1 == dictionaryOffsets.length) {
+                    dictionaryOffsets = Arrays.copyOf(dictionaryOffsets, 2 * dictionaryOffsets.length);
+                }
+                dictionaryOffsets[index + 1] = length;
+            }
+            indexes[i] = index;
+        }
+        byte[] dictionaryBytes = new byte[length];
+        for (Map.Entry<ByteBuffer, Integer> entry : dictionary.entrySet()) {
+            ByteBuffer string = entry.getKey();
+            System.arraycopy(string.array(), string.position(), dictionaryBytes, dictionaryOffsets[entry.getValue()], string.remaining());
+        }
+        return new DictionaryColumn(dictionaryBytes, Arrays.copyOf(dictionaryOffsets, dictionary.size() + 1), indexes);
+    }
+
+    @Override
+    ByteBuffer getUtf8(int i) {
+        int index = indexes[i];
+        if (index == -1) {
+            return null;
+        }
+        return ByteBuffer.wrap(bytes, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    @Override
+    int size() {
+        return indexes.length;
+    }
+
+    @Override
+    long getMemorySize() {
+        return arraySize(bytes.length) + arraySize(4L * offsets.length) + arraySize(4L * indexes.length);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Storage of the entries of a {@link LinCal}, sorted by date. Implementations are immutable.
+ *
+ * @author Felix Wiemuth
+ */
+abstract class EntryStore {
+
+    abstract int size();
+
+    /**
+     * @param i
+     * @return the date of entry {@code i} in milliseconds
+     */
+    abstract long getDate(int i);
+
+    abstract String getDescription(int i);
+
+    abstract String getLink(int i);
+
+    /**
+     * @param i
+     * @return the UTF-8 encoding of the description of entry {@code i} (the remaining bytes of the
+     * buffer, which must not be modified) or {@code null} if it has no description
+     */
+    abstract ByteBuffer getDescriptionUtf8(int i);
+
+    /**
+     * @param i
+     * @return the UTF-8 encoding of the link of entry {@code i} (see {@link
+     * #getDescriptionUtf8(int)})
+     */
+    abstract ByteBuffer getLinkUtf8(int i);
+
+    /**
+     * @return an estimate of the heap used by this store in bytes
+     */
+    abstract long getMemorySize();
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A {@link StringColumn} storing strings front-coded: each string is stored as the length of the
+ * prefix it shares with the previous string, followed by the length and bytes of the rest (lengths
+ * as variable-length integers). Every {@link #RESTART_INTERVAL}th string is stored completely, thus
+ * a string is rebuilt from at most that many records.
+ *
+ * @author Felix Wiemuth
+ */
+class FrontCodedColumn extends StringColumn {
+    static final int RESTART_INTERVAL = 16;
+
+    private final byte[] data;
+    private final int[] restarts; // offset of the record of string k * RESTART_INTERVAL
+    private final BitSet nulls; // null strings are stored as empty strings
+    private final int size;
+
+    private FrontCodedColumn(byte[] data, int[] restarts, BitSet nulls, int size) {
+        this.data = data;
+        this.restarts = restarts;
+        this.nulls = nulls;
+        this.size = size;
+    }
+
+    /**
+     * See {@link StringColumn.Builder#buildFrontCoded(int[])} and {@link
+     * DictionaryColumn#build(byte[], int[], BitSet, int, int[])}.
+     */
+    static FrontCodedColumn build(byte[] bytes, int[] offsets, BitSet nulls, int size, int[] order) {
+        byte[] data = new byte[64];
+        int length = 0;
+        int[] restarts = new int[(size + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+        BitSet sortedNulls = new BitSet(size);
+        int previous = 0; // offset of the previous string
+        int previousLength = 0;
+        for (int i = 0; i < size; i++) {
+            int j = order == null ? i : order[i];
+            int from = offsets[j];
+            int n = offsets[j + 1] - from;
+            if (nulls.get(j)) {
+                sortedNulls.set(i);
+            }
+            int prefix = 0;
+            if (i % RESTART_INTERVAL == 0) {
+                restarts[i / RESTART_INTERVAL] = length;
+            } else {
+                int max = Math.min(n, previousLength);
+                while (prefix < max && bytes[from + prefix] == bytes[previous + prefix]) {
+                    prefix++;
+                }
+            }
+            if (length + 10 + n - prefix > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, length + 10 + n - prefix));
+            }
+            length = writeVarInt(data, length, prefix);
+            length = writeVarInt(data, length, n - prefix);
+            System.arraycopy(bytes, from + prefix, data, length, n - prefix);
+            length += n - prefix;
+            previous = from;
+            previousLength = n;
+        }
+        return new FrontCodedColumn(Arrays.copyOf(data, length), restarts, sortedNulls, size);
+    }
+
+    @Override
+    ByteBuffer getUtf8(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Invalid string: " + i + ", size: " + size);
+        }
+        if (nulls.get(i)) {
+            return null;
+        }
+        byte[] string = new byte[64];
+        int length = 0;
+        int[] position = {restarts[i / RESTART_INTERVAL]};
+        for (int k = i - i % RESTART_INTERVAL; k <= i; k++) {
+            int prefix = readVarInt(data, position);
+            int n = readVarInt(data, position);
+            if (prefix + n > string.length) {
+                string = Arrays.copyOf(string, Math.max(2 * string.length, prefix + n));
+            }
+            System.arraycopy(data, position[0], string, prefix, n); // the prefix is still in place
+            position[0] += n;
+            length = prefix + n;
+        }
+        return ByteBuffer.wrap(string, 0, length);
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    long getMemorySize() {
+        return arraySize(data.length) + arraySize(4L * restarts.length) + arraySize(nulls.size() / 8);
+    }
+
+    /**
+     * Write a non-negative integer with 7 bits per byte, the highest bit indicating that another
+     * byte follows.
+     *
+     * @return the offset after the written bytes
+     */
+    private static int writeVarInt(byte[] data, int offset, int value) {
+        while (value >= 0x80) {
+            data[offset++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * @param position the offset to read from, advanced past the integer read
+     */
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
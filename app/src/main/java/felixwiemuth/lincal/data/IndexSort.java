@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stable sorting of long keys together with the permutation of their original positions (merge
+ * sort on primitive arrays). Large inputs are sorted in parallel: parts are sorted independently
+ * and then merged, where on equal keys the element from the left part is taken, which keeps the
+ * sort stable.
+ *
+ * @author Felix Wiemuth
+ */
+class IndexSort {
+    private static final int RUN = 32; // length of runs sorted by insertion sort
+    private static final int PARALLEL_MIN_SIZE = 1 << 17;
+
+    private IndexSort() {
+    }
+
+    /**
+     * Sort the first {@code n} keys, recording the original position of each key.
+     *
+     * @param keys  the keys to be sorted in place
+     * @param order receives the original position of the key at each position after sorting
+     * @param n     the number of keys
+     */
+    static void sort(long[] keys, int[] order, int n) {
+        long[] keysCopy = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean parallel = n >= PARALLEL_MIN_SIZE && threads > 1;
+        if (parallel) {
+            keysCopy = new long[n];
+            System.arraycopy(keys, 0, keysCopy, 0, n);
+        }
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        long[] keysTmp = new long[n];
+        int[] orderTmp = new int[n];
+        if (parallel) {
+            if (parallelSort(keys, order, keysTmp, orderTmp, n, threads)) {
+                return;
+            }
+            // start again sequentially
+            System.arraycopy(keysCopy, 0, keys, 0, n);
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+        }
+        sortRange(keys, order, keysTmp, orderTmp, 0, n);
+    }
+
+    /**
+     * Sort the given range, leaving the result in {@code keys} and {@code order}.
+     */
+    private static void sortRange(long[] keys, int[] order, long[] keysTmp, int[] orderTmp, int from, int to) {
+        for (int lo = from; lo < to; lo += RUN) {
+            insertionSort(keys, order, lo, Math.min(lo + RUN, to));
+        }
+        long[] srcKeys = keys;
+        int[] srcOrder = order;
+        long[] dstKeys = keysTmp;
+        int[] dstOrder = orderTmp;
+        for (int width = RUN; width < to - from; width *= 2) {
+            for (int lo = from; lo < to; lo += 2 * width) {
+                merge(srcKeys, srcOrder, dstKeys, dstOrder, lo, Math.min(lo + width, to), Math.min(lo + 2 * width, to));
+            }
+            long[] k = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = k;
+            int[] o = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = o;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, from, keys, from, to - from);
+            System.arraycopy(srcOrder, from, order, from, to - from);
+        }
+    }
+
+    private static void insertionSort(long[] keys, int[] order, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long key = keys[i];
+            int pos = order[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            order[j + 1] = pos;
+        }
+    }
+
+    /**
+     * Merge the sorted ranges [lo, mid) and [mid, hi) of the source into [lo, hi) of the
+     * destination, taking elements from the left range first on equal keys.
+     */
+    private static void merge(long[] srcKeys, int[] srcOrder, long[] dstKeys, int[] dstOrder, int lo, int mid, int hi) {
+        int i = lo;
+        int j = mid;
+        int o = lo;
+        while (i < mid && j < hi) {
+            if (srcKeys[j] < srcKeys[i]) {
+                dstKeys[o] = srcKeys[j];
+                dstOrder[o++] = srcOrder[j++];
+            } else {
+                dstKeys[o] = srcKeys[i];
+                dstOrder[o++] = srcOrder[i++];
+            }
+        }
+        System.arraycopy(srcKeys, i, dstKeys, o, mid - i);
+        System.arraycopy(srcOrder, i, dstOrder, o, mid - i);
+        o += mid - i;
+        System.arraycopy(srcKeys, j, dstKeys, o, hi - j);
+        System.arraycopy(srcOrder, j, dstOrder, o, hi - j);
+    }
+
+    /**
+     * @return whether sorting succeeded (otherwise the content of the arrays is undefined)
+     */
+    private static boolean parallelSort(final long[] keys, final int[] order, final long[] keysTmp, final int[] orderTmp, int n, int threads) {
+        final int[] bounds = new int[threads + 1];
+        for (int p = 0; p <= threads; p++) {
+            bounds[p] = (int) ((long) n * p / threads);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>(threads);
+            for (int p = 0; p < threads; p++) {
+                final int from = bounds[p];
+                final int to = bounds[p + 1];
+                tasks.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sortRange(keys, order, keysTmp, orderTmp, from, to);
+                    }
+                }));
+            }
+            await(tasks);
+            long[] srcKeys = keys;
+            int[] srcOrder = order;
+            long[] dstKeys = keysTmp;
+            int[] dstOrder = orderTmp;
+            for (int width = 1; width < threads; width *= 2) {
+                tasks.clear();
+                for (int p = 0; p < threads; p += 2 * width) {
+                    final long[] sk = srcKeys;
+                    final int[] so = srcOrder;
+                    final long[] dk = dstKeys;
+                    final int[] dOrder = dstOrder;
+                    final int lo = bounds[p];
+                    final int mid = bounds[Math.min(p + width, threads)];
+                    final int hi = bounds[Math.min(p + 2 * width, threads)];
+                    tasks.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            merge(sk, so, dk, dOrder, lo, mid, hi);
+                        }
+                    }));
+                }
+                await(tasks);
+                long[] k = srcKeys;
+                srcKeys = dstKeys;
+                dstKeys = k;
+                int[] o = srcOrder;
+                srcOrder = dstOrder;
+                dstOrder = o;
+            }
+            if (srcKeys != keys) {
+                System.arraycopy(srcKeys, 0, keys, 0, n);
+                System.arraycopy(srcOrder, 0, order, 0, n);
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws InterruptedException, ExecutionException {
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+    }
+}
@@ -17,20 +17,24 @@
 
 package felixwiemuth.lincal.data;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.List;
 
-import felixwiemuth.lincal.Main;
+import felixwiemuth.lincal.util.DateFormats;
 
 /**
  * The representation of a calendar. All fields are guaranteed to be non-null (ensured with an
- * exception while building an object if this is not the case).
+ * exception while building an object if this is not the case). Entries are kept in an {@link
+ * EntryStore}, either in columns on the heap (descriptions in a dictionary, links front-coded) or
+ * in a mapped file (see {@link
+ * LinCalBinaryFormat#map(java.nio.ByteBuffer)}), {@link CEntry} objects are only created on access.
  *
  * @author Felix Wiemuth
  */
 public class LinCal {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private final String title;
     private final String author;
@@ -42,7 +46,8 @@ public class LinCal {
     private final boolean forceEntryDisplayModeDate;
     private final boolean forceEntryDisplayModeDescription;
 
-    private final List<CEntry> entries; // simple list, ordering is constructed at creation, no adaptation of list allowed
+    // entries, ordering is constructed at creation, no adaptation allowed
+    private final EntryStore entries;
 
     //NOTE order of constants must correspond to order of strings in spinner for UI
     public enum EntryDisplayMode {
@@ -86,7 +91,11 @@ public class LinCal {
         private EntryDisplayMode entryDisplayModeDescription = EntryDisplayMode.HIDE_FUTURE;
         private boolean forceEntryDisplayModeDate = false;
         private boolean forceEntryDisplayModeDescription = false;
-        private final List<CEntry> entries = new ArrayList<>();
+        private long[] entryDates = new long[16];
+        private final StringColumn.Builder entryDescriptions = new StringColumn.Builder();
+        private final StringColumn.Builder entryLinks = new StringColumn.Builder();
+        private int size;
+        private boolean sorted = true; // whether entries have been added in the order of dates
 
         private Builder() {
         }
@@ -136,7 +145,28 @@ public class LinCal {
         }
 
         public Builder addCEntry(final CEntry entry) {
-            entries.add(entry);
+            return addEntry(entry.getTimeInMillis(), entry.getDescriptionUtf8(), entry.getLinkUtf8());
+        }
+
+        Builder addEntry(long date, String description, String link) {
+            return addEntry(date, description == null ? null : ByteBuffer.wrap(description.getBytes(UTF_8)), link == null ? null : ByteBuffer.wrap(link.getBytes(UTF_8)));
+        }
+
+        /**
+         * Add an entry with description and link given UTF-8 encoded (see {@link
+         * StringColumn.Builder#add(ByteBuffer)}).
+         */
+        Builder addEntry(long date, ByteBuffer description, ByteBuffer link) {
+            if (size == entryDates.length) {
+                entryDates = Arrays.copyOf(entryDates, 2 * size);
+            }
+            if (size > 0 && date < entryDates[size - 1]) {
+                sorted = false;
+            }
+            entryDates[size] = date;
+            entryDescriptions.add(description);
+            entryLinks.add(link);
+            size++;
             return this;
         }
 
@@ -150,6 +180,30 @@ public class LinCal {
          * @throws MissingFieldException if one of the fields is not set
          */
         public LinCal build() throws MissingFieldException {
+            checkFields();
+            long[] sortedDates = Arrays.copyOf(entryDates, size); // make copies to keep builder valid
+            int[] order = null;
+            if (!sorted) {
+                order = new int[size];
+                IndexSort.sort(sortedDates, order, size);
+            }
+            return build(new ArrayEntryStore(sortedDates, entryDescriptions.buildDictionary(order), entryLinks.buildFrontCoded(order)));
+        }
+
+        /**
+         * Build an instance of {@link LinCal} with the given entries instead of the ones added to
+         * this builder.
+         *
+         * @param entries
+         * @return
+         * @throws MissingFieldException if one of the fields is not set
+         */
+        LinCal build(EntryStore entries) throws MissingFieldException {
+            checkFields();
+            return new LinCal(title, author, description, version, date, entryDisplayModeDate, entryDisplayModeDescription, forceEntryDisplayModeDate, forceEntryDisplayModeDescription, entries);
+        }
+
+        private void checkFields() throws MissingFieldException {
             if (title == null) {
                 throw new MissingFieldException(Field.TITLE);
             }
@@ -165,9 +219,6 @@ public class LinCal {
             if (date == null) {
                 throw new MissingFieldException(Field.DATE);
             }
-            List<CEntry> sortedEntries = new ArrayList<>(entries); // make a copy to keep builder valid
-            Collections.sort(sortedEntries);
-            return new LinCal(title, author, description, version, date, entryDisplayModeDate, entryDisplayModeDescription, forceEntryDisplayModeDate, forceEntryDisplayModeDescription , sortedEntries);
         }
 
     }
@@ -176,7 +227,30 @@ public class LinCal {
         return new LinCal.Builder();
     }
 
-    private LinCal(final String title, final String author, final String description, final String version, final Calendar date, final EntryDisplayMode entryDisplayModeDate, final EntryDisplayMode entryDisplayModeDescription, final boolean forceEntryDisplayModeDate, boolean forceEntryDisplayModeDescription, final List<CEntry> entries) {
+    /**
+     * Get a builder initialized with the fields and entries of the given calendar.
+     *
+     * @param calendar
+     * @return
+     */
+    public static LinCal.Builder builder(LinCal calendar) {
+        LinCal.Builder builder = new LinCal.Builder()
+                .title(calendar.title)
+                .author(calendar.author)
+                .description(calendar.description)
+                .version(calendar.version)
+                .date(calendar.date)
+                .entryDisplayModeDate(calendar.entryDisplayModeDate)
+                .entryDisplayModeDescription(calendar.entryDisplayModeDescription);
+        builder.forceEntryDisplayModeDate(calendar.forceEntryDisplayModeDate);
+        builder.forceEntryDisplayModeDescription(calendar.forceEntryDisplayModeDescription);
+        for (int i = 0; i < calendar.size(); i++) {
+            builder.addEntry(calendar.entries.getDate(i), calendar.entries.getDescriptionUtf8(i), calendar.entries.getLinkUtf8(i));
+        }
+        return builder;
+    }
+
+    private LinCal(final String title, final String author, final String description, final String version, final Calendar date, final EntryDisplayMode entryDisplayModeDate, final EntryDisplayMode entryDisplayModeDescription, final boolean forceEntryDisplayModeDate, boolean forceEntryDisplayModeDescription, final EntryStore entries) {
         this.title = title;
         this.author = author;
         this.description = description;
@@ -210,7 +284,7 @@ public class LinCal {
     }
 
     public String getDateStr() {
-        return Main.dfDay.format(date.getTime());
+        return DateFormats.formatDay(date.getTimeInMillis());
     }
 
     /**
@@ -253,11 +327,105 @@ public class LinCal {
         return forceEntryDisplayModeDescription;
     }
 
+    /**
+     * Get the entry at the given position in the order of dates. The entry is created on each
+     * call.
+     *
+     * @param location
+     * @return
+     */
     public CEntry get(int location) {
-        return entries.get(location);
+        if (location < 0 || location >= entries.size()) {
+            throw new IndexOutOfBoundsException("Invalid entry: " + location + ", size: " + entries.size());
+        }
+        return new CEntry(entries.getDate(location), entries.getDescription(location), entries.getLink(location));
+    }
+
+    /**
+     * Get the date of the entry at the given position without creating the entry.
+     *
+     * @param location
+     * @return the date in milliseconds
+     */
+    public long getEntryTimeInMillis(int location) {
+        return entries.getDate(location);
+    }
+
+    ByteBuffer getEntryDescriptionUtf8(int location) {
+        return entries.getDescriptionUtf8(location);
+    }
+
+    ByteBuffer getEntryLinkUtf8(int location) {
+        return entries.getLinkUtf8(location);
     }
 
     public int size() {
         return entries.size();
     }
+
+    /**
+     * @return an estimate of the heap used by the entries in bytes (small and independent of the
+     * number of entries if they are read from a mapped file)
+     */
+    public long getEntriesMemorySize() {
+        return entries.getMemorySize();
+    }
+
+    /**
+     * Get the position of the first entry at or after the given time (in O(log n)).
+     *
+     * @param time in milliseconds
+     * @return the position or {@link #size()} if all entries are before the given time
+     */
+    public int indexAtOrAfter(long time) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.getDate(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the position of the first entry after the given time (in O(log n)).
+     *
+     * @param time in milliseconds
+     * @return the position or {@link #size()} if no entry is after the given time
+     */
+    public int indexAfter(long time) {
+        return time == Long.MAX_VALUE ? entries.size() : indexAtOrAfter(time + 1);
+    }
+
+    /**
+     * Get the position of the last entry before the given time (in O(log n)).
+     *
+     * @param time in milliseconds
+     * @return the position or -1 if no entry is before the given time
+     */
+    public int lastIndexBefore(long time) {
+        return indexAtOrAfter(time) - 1;
+    }
+
+    /**
+     * Get the positions of the entries on the given day (in O(log n)).
+     *
+     * @param day any time on the day
+     * @return the position of the first entry on the day and the position after the last entry
+     * on the day (equal if there are no entries on the day)
+     */
+    public int[] getDayRange(Calendar day) {
+        Calendar start = (Calendar) day.clone();
+        start.set(Calendar.HOUR_OF_DAY, 0);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 0);
+        start.set(Calendar.MILLISECOND, 0);
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.DAY_OF_MONTH, 1);
+        return new int[]{indexAtOrAfter(start.getTimeInMillis()), indexAtOrAfter(end.getTimeInMillis())};
+    }
 }
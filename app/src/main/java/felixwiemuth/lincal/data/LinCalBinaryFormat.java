@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Reads and writes calendars in a compact binary format, which allows to load a calendar without
+ * parsing its text file. Dates are stored in milliseconds, calculated in the time zone stored in
+ * the file, thus a file can only be read in the time zone it was written in.
+ * <p>
+ * Layout (big endian): magic number, version, time zone ID and the header's strings (each as
+ * length and UTF-8 bytes), header date, the two display modes, force flags, number of entries n,
+ * padding to a multiple of 8 bytes, n entry dates (long), n description indexes and n link
+ * indexes into the string table (int, -1 for null), number of strings m, m + 1 offsets into the
+ * string data (int) and the string data (UTF-8). Each distinct string is stored once.
+ *
+ * @author Felix Wiemuth
+ */
+public class LinCalBinaryFormat {
+
+    /**
+     * Extension of files in this format.
+     */
+    public static final String EXTENSION = ".lcb";
+
+    private static final int MAGIC = 0x4C434246; // "LCBF"
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // force flags
+    private static final int FORCE_DATE = 1;
+    private static final int FORCE_DESCRIPTION = 2;
+
+    /**
+     * Indicates that data is not a calendar in this format (or version of the format) or cannot
+     * be used in the current time zone.
+     */
+    public static class InvalidFormatException extends IOException {
+        public InvalidFormatException(String message) {
+            super(message);
+        }
+    }
+
+    private LinCalBinaryFormat() {
+    }
+
+    /**
+     * Write the calendar to the given stream.
+     *
+     * @param calendar
+     * @param out      the stream to write to, which is flushed but not closed
+     * @throws IOException
+     */
+    public static void write(LinCal calendar, OutputStream out) throws IOException {
+        int n = calendar.size();
+        Map<ByteBuffer, Integer> indexes = new HashMap<>(); // strings are compared in their encoded form, without decoding
+        List<ByteBuffer> strings = new ArrayList<>();
+        int[] descriptions = new int[n];
+        int[] links = new int[n];
+        for (int i = 0; i < n; i++) {
+            descriptions[i] = index(calendar.getEntryDescriptionUtf8(i), indexes, strings);
+            links[i] = index(calendar.getEntryLinkUtf8(i), indexes, strings);
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        writeString(data, calendar.getDate().getTimeZone().getID());
+        writeString(data, calendar.getTitle());
+        writeString(data, calendar.getAuthor());
+        writeString(data, calendar.getDescription());
+        writeString(data, calendar.getVersion());
+        data.writeLong(calendar.getDate().getTimeInMillis());
+        data.writeByte(calendar.getEntryDisplayModeDate().ordinal());
+        data.writeByte(calendar.getEntryDisplayModeDescription().ordinal());
+        data.writeByte((calendar.hasForceEntryDisplayModeDate() ? FORCE_DATE : 0) | (calendar.hasForceEntryDisplayModeDescription() ? FORCE_DESCRIPTION : 0));
+        data.writeInt(n);
+        while (data.size() % 8 != 0) { // align the arrays
+            data.writeByte(0);
+        }
+        for (int i = 0; i < n; i++) {
+            data.writeLong(calendar.getEntryTimeInMillis(i));
+        }
+        for (int index : descriptions) {
+            data.writeInt(index);
+        }
+        for (int index : links) {
+            data.writeInt(index);
+        }
+        data.writeInt(strings.size());
+        int offset = 0;
+        data.writeInt(offset);
+        for (ByteBuffer string : strings) {
+            offset += string.remaining();
+            data.writeInt(offset);
+        }
+        for (ByteBuffer string : strings) {
+            writeBytes(data, string);
+        }
+        data.flush();
+    }
+
+    private static int index(ByteBuffer string, Map<ByteBuffer, Integer> indexes, List<ByteBuffer> strings) {
+        if (string == null) {
+            return -1;
+        }
+        Integer index = indexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            indexes.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+    private static void writeBytes(DataOutputStream data, ByteBuffer bytes) throws IOException {
+        if (bytes.hasArray()) {
+            data.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        } else {
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.duplicate().get(copy);
+            data.write(copy);
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /**
+     * Read a calendar written with {@link #write(LinCal, OutputStream)}.
+     *
+     * @param in the content of a file in this format (position 0, limit the file's size), its
+     *           position is not changed
+     * @return
+     * @throws InvalidFormatException if the data is not a calendar in this format or was written
+     *                                in another time zone than the current one
+     */
+    public static LinCal read(ByteBuffer in) throws InvalidFormatException {
+        ByteBuffer b = in.duplicate();
+        b.order(ByteOrder.BIG_ENDIAN);
+        b.position(0);
+        try {
+            LinCal.Builder c = readHeader(b);
+            int n = readSize(b);
+            long[] dates = new long[n];
+            b.asLongBuffer().get(dates);
+            b.position(b.position() + 8 * n);
+            int[] descriptions = new int[n];
+            b.asIntBuffer().get(descriptions);
+            b.position(b.position() + 4 * n);
+            int[] links = new int[n];
+            b.asIntBuffer().get(links);
+            b.position(b.position() + 4 * n);
+
+            ByteBuffer[] strings = readStringTable(b);
+            for (int i = 0; i < n; i++) {
+                c.addEntry(dates[i], string(strings, descriptions[i]), string(strings, links[i]));
+            }
+            return c.build();
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | LinCal.Builder.MissingFieldException ex) {
+            throw new InvalidFormatException("Corrupted binary calendar: " + ex);
+        }
+    }
+
+    /**
+     * Get a calendar whose entries are read directly from the given buffer when accessed, instead
+     * of copying them to the heap. Besides the header, this method only checks the string indexes
+     * and offsets, so that a corrupted file is detected here and not when accessing entries. This
+     * takes constant memory. If the buffer is a mapping of a file, the OS's page cache is used for
+     * the entries, shared by all users of the file.
+     * <p>
+     * The content of the buffer must not be changed while the calendar is used, i.e., a mapped
+     * file must not be modified (but it may be replaced by another file).
+     *
+     * @param in the content of a file in this format (position 0, limit the file's size), its
+     *           position is not changed
+     * @return
+     * @throws InvalidFormatException if the data is not a calendar in this format or was written
+     *                                in another time zone than the current one
+     */
+    public static LinCal map(ByteBuffer in) throws InvalidFormatException {
+        ByteBuffer b = in.duplicate();
+        b.order(ByteOrder.BIG_ENDIAN);
+        b.position(0);
+        try {
+            LinCal.Builder c = readHeader(b);
+            int n = readSize(b);
+            LongBuffer dates = view(b, 8 * n).asLongBuffer();
+            IntBuffer descriptions = view(b, 4 * n).asIntBuffer();
+            IntBuffer links = view(b, 4 * n).asIntBuffer();
+            int m = b.getInt();
+            if (m < 0 || m >= b.remaining() / 4) {
+                throw new BufferUnderflowException();
+            }
+            IntBuffer offsets = view(b, 4 * (m + 1)).asIntBuffer();
+            if (offsets.get(0) != 0 || offsets.get(m) > b.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            for (int j = 0; j < m; j++) {
+                if (offsets.get(j + 1) < offsets.get(j)) {
+                    throw new IllegalArgumentException("Invalid string offset");
+                }
+            }
+            checkIndexes(descriptions, m);
+            checkIndexes(links, m);
+            ByteBuffer data = view(b, offsets.get(m));
+            return c.build(new MappedEntryStore(dates, descriptions, links, offsets, data));
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | LinCal.Builder.MissingFieldException ex) {
+            throw new InvalidFormatException("Corrupted binary calendar: " + ex);
+        }
+    }
+
+    /**
+     * @param indexes string indexes of entries
+     * @param m       the number of strings
+     * @throws IndexOutOfBoundsException if an index is neither -1 nor the index of a string
+     */
+    private static void checkIndexes(IntBuffer indexes, int m) {
+        for (int i = 0; i < indexes.limit(); i++) {
+            int index = indexes.get(i);
+            if (index < -1 || index >= m) {
+                throw new IndexOutOfBoundsException("Invalid string index: " + index);
+            }
+        }
+    }
+
+    /**
+     * @return a builder with the header fields read from the buffer
+     */
+    private static LinCal.Builder readHeader(ByteBuffer b) throws InvalidFormatException {
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+            throw new InvalidFormatException("Not a binary calendar of version " + VERSION);
+        }
+        String timeZone = readString(b);
+        if (!timeZone.equals(TimeZone.getDefault().getID())) {
+            throw new InvalidFormatException("Calendar was written in time zone " + timeZone);
+        }
+        LinCal.Builder c = LinCal.builder()
+                .title(readString(b))
+                .author(readString(b))
+                .description(readString(b))
+                .version(readString(b));
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(b.getLong());
+        c.date(date);
+        c.entryDisplayModeDate(LinCal.EntryDisplayMode.values()[b.get()]);
+        c.entryDisplayModeDescription(LinCal.EntryDisplayMode.values()[b.get()]);
+        int flags = b.get();
+        c.forceEntryDisplayModeDate((flags & FORCE_DATE) != 0);
+        c.forceEntryDisplayModeDescription((flags & FORCE_DESCRIPTION) != 0);
+        return c;
+    }
+
+    /**
+     * Read the number of entries and skip the padding before the arrays.
+     */
+    private static int readSize(ByteBuffer b) throws InvalidFormatException {
+        int n = b.getInt();
+        b.position((b.position() + 7) / 8 * 8);
+        if (n < 0 || n > b.remaining() / 16) {
+            throw new InvalidFormatException("Invalid number of entries: " + n);
+        }
+        return n;
+    }
+
+    /**
+     * @return a view of the next {@code length} bytes of the buffer, which are skipped
+     */
+    private static ByteBuffer view(ByteBuffer b, int length) {
+        if (length > b.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer view = b.slice();
+        view.limit(length);
+        b.position(b.position() + length);
+        return view;
+    }
+
+    private static String readString(ByteBuffer b) {
+        int length = b.getInt();
+        if (length < 0 || length > b.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return views of the encoded strings (not decoded, as this is done on access by the calendar)
+     */
+    private static ByteBuffer[] readStringTable(ByteBuffer b) {
+        int m = b.getInt();
+        if (m < 0 || m >= b.remaining() / 4) {
+            throw new BufferUnderflowException();
+        }
+        int[] offsets = new int[m + 1];
+        b.asIntBuffer().get(offsets);
+        b.position(b.position() + 4 * (m + 1));
+        if (offsets[0] != 0 || offsets[m] > b.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] data = new byte[offsets[m]];
+        b.get(data);
+        ByteBuffer[] strings = new ByteBuffer[m];
+        for (int j = 0; j < m; j++) {
+            if (offsets[j + 1] < offsets[j]) {
+                throw new IllegalArgumentException("Invalid string offset");
+            }
+            strings[j] = ByteBuffer.wrap(data, offsets[j], offsets[j + 1] - offsets[j]);
+        }
+        return strings;
+    }
+
+    private static ByteBuffer string(ByteBuffer[] strings, int index) {
+        return index == -1 ? null : strings[index];
+    }
+}
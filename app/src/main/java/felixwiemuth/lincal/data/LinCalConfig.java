@@ -84,6 +84,16 @@ public class LinCalConfig {
     public LinCalConfig() {
     }
 
+    /**
+     * Create a copy of the given configuration (including its position).
+     *
+     * @param other
+     */
+    public LinCalConfig(LinCalConfig other) {
+        this(other.id, other.calendarFile, other.calendarTitle, other.entryDisplayModeDate, other.entryDisplayModeDescription, other.notificationsEnabled, other.earliestNotificationTimeEnabled, other.earliestNotificationTime == null ? null : new Time(other.earliestNotificationTime.getHour(), other.earliestNotificationTime.getMinute()), other.onScreenOn);
+        this.pos = other.pos;
+    }
+
     /**
      * Create an entry from a formatted line in a configuration file, which is at the specified
      * format version.
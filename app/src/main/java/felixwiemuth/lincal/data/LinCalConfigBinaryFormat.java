@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import felixwiemuth.lincal.util.Time;
+
+/**
+ * Reads and writes the configurations of calendars in a binary format with fixed-width records,
+ * which allows to change the position of a calendar by a single write to the file.
+ * <p>
+ * Layout (big endian): magic number, version, next id, number of records n, n records of {@link
+ * #RECORD_SIZE} bytes and the string area. A record consists of id, position, offsets of the
+ * calendar file and title in the string area (int, -1 for null), earliest notification time
+ * (minute of the day, short, -1 for null), flags, the two display modes (ordinal as byte, -1 for
+ * null) and padding. Strings are stored as length (int) and UTF-8 bytes.
+ *
+ * @author Felix Wiemuth
+ */
+class LinCalConfigBinaryFormat {
+    private static final int MAGIC = 0x4C434346; // "LCCF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+    private static final int POS_OFFSET = 4; // offset of the position in a record
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // flags
+    private static final int NOTIFICATIONS_ENABLED = 1;
+    private static final int EARLIEST_NOTIFICATION_TIME_ENABLED = 2;
+    private static final int ON_SCREEN_ON = 4;
+
+    private LinCalConfigBinaryFormat() {
+    }
+
+    /**
+     * Write a configuration to the given stream.
+     *
+     * @param nextId
+     * @param entries
+     * @param out     the stream to write to, which is flushed but not closed
+     * @throws IOException
+     */
+    static void write(int nextId, List<LinCalConfig> entries, OutputStream out) throws IOException {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream stringData = new DataOutputStream(strings);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(nextId);
+        data.writeInt(entries.size());
+        for (LinCalConfig config : entries) {
+            data.writeInt(config.getId());
+            data.writeInt(config.getPos());
+            data.writeInt(writeString(stringData, config.getCalendarFile()));
+            data.writeInt(writeString(stringData, config.getCalendarTitle()));
+            data.writeShort(config.getEarliestNotificationTime() == null ? -1 : config.getEarliestNotificationTime().getMinuteOfDay());
+            data.writeByte((config.isNotificationsEnabled() ? NOTIFICATIONS_ENABLED : 0)
+                    | (config.isEarliestNotificationTimeEnabled() ? EARLIEST_NOTIFICATION_TIME_ENABLED : 0)
+                    | (config.isOnScreenOn() ? ON_SCREEN_ON : 0));
+            data.writeByte(ordinal(config.getEntryDisplayModeDate()));
+            data.writeByte(ordinal(config.getEntryDisplayModeDescription()));
+            data.write(new byte[RECORD_SIZE - 21]); // padding
+        }
+        strings.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * @return the offset of the string in the string area or -1 if it is null
+     */
+    private static int writeString(DataOutputStream stringData, String string) throws IOException {
+        if (string == null) {
+            return -1;
+        }
+        int offset = stringData.size();
+        byte[] bytes = string.getBytes(UTF_8);
+        stringData.writeInt(bytes.length);
+        stringData.write(bytes);
+        return offset;
+    }
+
+    private static int ordinal(LinCal.EntryDisplayMode mode) {
+        return mode == null ? -1 : mode.ordinal();
+    }
+
+    /**
+     * Read a configuration written with {@link #write(int, List, OutputStream)}.
+     *
+     * @param in      the content of a file in this format (position 0, limit the file's size), its
+     *                position is not changed
+     * @param entries the list to add the configurations to
+     * @return the next id
+     * @throws LinCalConfig.FormatException if the data is not a configuration in this format
+     */
+    static int read(ByteBuffer in, List<LinCalConfig> entries) throws LinCalConfig.FormatException {
+        ByteBuffer b = in.duplicate();
+        b.order(ByteOrder.BIG_ENDIAN);
+        b.position(0);
+        try {
+            if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+                throw new LinCalConfig.FormatException("Not a binary configuration of version " + VERSION);
+            }
+            int nextId = b.getInt();
+            int n = b.getInt();
+            if (n < 0 || n > b.remaining() / RECORD_SIZE) {
+                throw new LinCalConfig.FormatException("Invalid number of records: " + n);
+            }
+            int stringArea = HEADER_SIZE + n * RECORD_SIZE;
+            for (int i = 0; i < n; i++) {
+                int record = HEADER_SIZE + i * RECORD_SIZE;
+                int earliest = b.getShort(record + 16);
+                int flags = b.get(record + 18);
+                LinCalConfig config = new LinCalConfig(b.getInt(record),
+                        readString(b, stringArea, b.getInt(record + 8)),
+                        readString(b, stringArea, b.getInt(record + 12)),
+                        displayMode(b.get(record + 19)),
+                        displayMode(b.get(record + 20)),
+                        (flags & NOTIFICATIONS_ENABLED) != 0,
+                        (flags & EARLIEST_NOTIFICATION_TIME_ENABLED) != 0,
+                        earliest == -1 ? null : new Time(earliest / 60, earliest % 60),
+                        (flags & ON_SCREEN_ON) != 0);
+                config.setPos(b.getInt(record + POS_OFFSET));
+                entries.add(config);
+            }
+            return nextId;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new LinCalConfig.FormatException(ex);
+        }
+    }
+
+    private static String readString(ByteBuffer b, int stringArea, int offset) {
+        if (offset == -1) {
+            return null;
+        }
+        int length = b.getInt(stringArea + offset);
+        if (length < 0 || stringArea + offset + 4 + length > b.limit()) {
+            throw new IndexOutOfBoundsException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer string = b.duplicate();
+        string.position(stringArea + offset + 4);
+        string.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static LinCal.EntryDisplayMode displayMode(int ordinal) {
+        return ordinal == -1 ? null : LinCal.EntryDisplayMode.values()[ordinal];
+    }
+
+    /**
+     * Change the position stored in a record of a file in this format. This changes the file in
+     * place, by a single write of 4 bytes at an offset which is a multiple of 4.
+     *
+     * @param channel a channel of the file opened for reading and writing
+     * @param index   the index of the record
+     * @param id      the id of the configuration expected at the index
+     * @param pos     the new position
+     * @return false if there is no record for the configuration at the given index (nothing is
+     * written in this case)
+     * @throws IOException
+     */
+    static boolean writePos(FileChannel channel, int index, int id, int pos) throws IOException {
+        long record = HEADER_SIZE + (long) index * RECORD_SIZE;
+        if (record + RECORD_SIZE > channel.size()) {
+            return false;
+        }
+        ByteBuffer value = ByteBuffer.allocate(4);
+        if (channel.read(value, record) != 4 || value.getInt(0) != id) {
+            return false;
+        }
+        value.clear();
+        value.putInt(0, pos);
+        while (value.hasRemaining()) {
+            channel.write(value, record + POS_OFFSET + value.position());
+        }
+        return true;
+    }
+}
@@ -25,14 +25,25 @@ import android.content.SharedPreferences;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import felixwiemuth.lincal.Calendars;
 import felixwiemuth.lincal.R;
@@ -42,6 +53,29 @@ import felixwiemuth.lincal.R;
  * the next ID in the first line of the file is updated such that no entries with the same id can
  * exist in the file. Automatically updates the configuration file if necessary (and the (removal
  * of) the config-0 directory) on access.
+ * <p>
+ * The configuration file is never changed in place (except for positions, see below): new content
+ * is written to a temporary file which then replaces the configuration file by renaming, thus
+ * readers always see a complete version and can read in parallel. Writers are mutually excluded within the process by a
+ * read-write lock (which also excludes readers from the process, so that they see the latest
+ * version) and between processes by a {@link FileLock} on a separate lock file.
+ * <p>
+ * The configuration is stored in {@link #CONFIG_FILE_BINARY} (see {@link
+ * LinCalConfigBinaryFormat}), where changed positions are saved without rewriting the file (see
+ * {@link #savePositions(Context, Collection)}). This is the only change made in place: a position
+ * is a single 4-byte write, aligned so that it does not cross a page or sector boundary, done
+ * holding both write locks. Readers thus see either the old or the new position, also if the write
+ * is interrupted.
+ * <p>
+ * With every write of the whole configuration, it is also written to {@link #CONFIG_FILE} in the
+ * current version of the text format (before the binary file), and this version is the one stored
+ * in the preferences. Thus earlier versions of the app, which only know the text format, still
+ * find the configuration after a downgrade. Positions saved since are appended to a journal next to
+ * the text file before they are written to the binary file, which is applied when loading the
+ * text file (also by earlier versions since the journal has been introduced). When the journal
+ * exceeds a certain size, it is compacted by writing the whole configuration. If the text file or
+ * the journal is newer than the binary file, it has been written by an earlier version (or the
+ * binary file has not been written after the journal) and the configuration is migrated from it.
  *
  * @author Felix Wiemuth
  */
@@ -50,9 +84,42 @@ public class LinCalConfigStore {
     public static final String NOTIFICATION_MODE_GIVEN_TIME = "GIVEN_TIME";
     public static final String NOTIFICATION_MODE_SCREEN_ON = "SCREEN_ON";
     public static final String CONFIG_FILE = "config.txt";
-    public static final String CONFIG_FILE_OPENED = CONFIG_FILE + ".locked"; // name of the file while reading or writing from/to it
+    public static final String CONFIG_FILE_BINARY = "config.bin";
+    /**
+     * Configuration version (as stored in the preferences by versions which did not write the text
+     * file) meaning that the configuration is only in the binary format, lower versions are
+     * versions of the text format (see {@link LinCalConfig#FORMAT_VERSION}).
+     */
+    public static final int BINARY_FORMAT_VERSION = 2;
+    /**
+     * Name of the configuration file while being read or written by earlier versions, which locked
+     * it by renaming. Only used to restore the file if such a version has been interrupted.
+     */
+    public static final String CONFIG_FILE_OPENED = CONFIG_FILE + ".locked";
+    private static final String TMP_SUFFIX = ".tmp"; // new content is written to a file with this suffix, which then replaces the configuration file
+    private static final String LOCK_FILE = CONFIG_FILE + ".lock"; // locked while writing the configuration file
+    /**
+     * Positions changed since the configuration file in the text format was written, as records of
+     * id and position (two big-endian ints).
+     */
+    private static final String JOURNAL_FILE = CONFIG_FILE + ".journal";
+    private static final int JOURNAL_RECORD_SIZE = 8;
+    /**
+     * Size of the journal in bytes from which on it is compacted.
+     */
+    private static final int JOURNAL_MAX_SIZE = 4096;
     public static final String PREFFILE_CONFIG_FILE_ENTRY_VERSION = "config";
     public static final String PREF_CONFIG_FILE_ENTRY_VERSION = "CONFIG_FILE_ENTRY_VERSION";
+    /**
+     * The version stored in the preferences, which is the version of the text format the
+     * configuration is also written in.
+     */
+    private static final int VERSION = LinCalConfig.FORMAT_VERSION;
+
+    /**
+     * Guards the configuration file within the process (shared by all instances).
+     */
+    private static final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
 
     private int nextId;
     private final List<LinCalConfig> entries = new ArrayList<>();
@@ -64,52 +131,78 @@ public class LinCalConfigStore {
      * @param context
      */
     public LinCalConfigStore(Context context) {
+        restoreConfigFile(context);
         boolean stop = update(context); // if updating, this will also load, but to verify it works, it is good to load again anyway with the next statement
         if (stop) {
             return; // Note: this leaves the application with entries being empty and an invalid nextId which is fine
         }
-        load(context, LinCalConfig.FORMAT_VERSION, null);
+        load(context, BINARY_FORMAT_VERSION, null);
     }
 
     /**
      * Load the configuration, replacing the configuration this instance represents.
      *
      * @param context
-     * @param configFileEntryVersion
+     * @param configFileEntryVersion the version of the configuration ({@link #BINARY_FORMAT_VERSION}
+     *                               or a version of the text format)
      * @param action                 action to be performed while the file is locked (can be null)
      */
     private void load(Context context, int configFileEntryVersion, Runnable action) {
         entries.clear();
         //TODO check correct handling of exceptions
-        lockConfigFile(context); //NOTE: this assumes that file exists
+        fileLock.readLock().lock();
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(context.openFileInput(CONFIG_FILE_OPENED)));
-            try {
-                String line = in.readLine();
-                try {
-                    nextId = Integer.parseInt(line);
-                } catch (NumberFormatException ex) {
-                    throw new RuntimeException("File must start with an integer in the first line.", ex);
-                }
-                while ((line = in.readLine()) != null) {
-                    entries.add(new LinCalConfig(line, configFileEntryVersion));
-                }
-                if (action != null) {
-                    action.run();
-                }
-            } catch (IOException | LinCalConfig.FormatException ex) {
-                throw new RuntimeException(ex); // unrecoverable errors
-            } finally {
-                try {
-                    in.close();
-                    unlockConfigFile(context); //TODO how to deal with exceptions, unlock file?
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
-                }
+            if (configFileEntryVersion == BINARY_FORMAT_VERSION) {
+                nextId = LinCalConfigBinaryFormat.read(readFile(new File(context.getFilesDir(), CONFIG_FILE_BINARY)), entries);
+            } else {
+                loadText(context, configFileEntryVersion);
+                replayJournal(context);
+            }
+            if (action != null) {
+                action.run();
             }
         } catch (FileNotFoundException ex) {
             // the file does not exist, thus no entries have to be loaded
+            entries.clear();
             nextId = 0;
+        } catch (IOException | LinCalConfig.FormatException ex) {
+            throw new RuntimeException(ex); // unrecoverable errors
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Load the configuration from the file in the text format.
+     *
+     * @param context
+     * @param configFileEntryVersion
+     */
+    private void loadText(Context context, int configFileEntryVersion) throws IOException, LinCalConfig.FormatException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(context.openFileInput(CONFIG_FILE)));
+        try {
+            String line = in.readLine();
+            try {
+                nextId = Integer.parseInt(line);
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("File must start with an integer in the first line.", ex);
+            }
+            while ((line = in.readLine()) != null) {
+                entries.add(new LinCalConfig(line, configFileEntryVersion));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            in.close();
         }
     }
 
@@ -122,36 +215,123 @@ public class LinCalConfigStore {
      *                null)
      */
     private void save(Context context, Runnable action) {
-        lockConfigFile(context);
-        PrintWriter writer;
+        writeConfigFile(context, nextId, entries, action);
+    }
+
+    /**
+     * Write the configuration represented by this instance to the configuration file. If the file
+     * is not present, it is created.
+     *
+     * @param context
+     */
+    public void save(Context context) {
+        save(context, null);
+    }
+
+    /**
+     * Save the positions of the given entries of this configuration (the other values are not
+     * saved). The positions are appended to the journal in a single write and then written to
+     * their records in the configuration file (each by a single positional write), the cost does
+     * not depend on the number of calendars. This is only possible if the positions have been
+     * advanced, as when loading, a position from the journal is only applied if it is greater than
+     * the one in the configuration file. If the journal exceeds its maximum size or the file does
+     * not contain the entries at their positions in this configuration, the whole configuration is
+     * saved instead.
+     *
+     * @param context
+     * @param changed entries of this configuration with advanced positions
+     */
+    public void savePositions(Context context, Collection<LinCalConfig> changed) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(changed.size() * JOURNAL_RECORD_SIZE);
+        DataOutputStream data = new DataOutputStream(records);
         try {
-            //TODO check how to allow file to be public (other modes deprecated)
-            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(context.openFileOutput(CONFIG_FILE_OPENED, Context.MODE_PRIVATE))));
-        } catch (FileNotFoundException ex) { // this should not occur, as when locking the file succeeds, it should exist
+            for (LinCalConfig config : changed) {
+                data.writeInt(config.getId());
+                data.writeInt(config.getPos());
+            }
+        } catch (IOException ex) { // does not occur when writing to memory
             throw new RuntimeException(ex);
         }
-        writer.println(nextId);
-        for (LinCalConfig linCalConfig : entries) {
-            writer.println(linCalConfig);
-        }
-        writer.close();
-        if (action != null) {
-            action.run();
+        File dir = context.getFilesDir();
+        File file = new File(dir, CONFIG_FILE_BINARY);
+        File journal = new File(dir, JOURNAL_FILE);
+        fileLock.writeLock().lock();
+        try {
+            boolean written = file.exists() && journal.length() + records.size() <= JOURNAL_MAX_SIZE; // otherwise compact
+            if (written) {
+                FileLock lock = lockFile(context);
+                try {
+                    FileOutputStream journalOut = new FileOutputStream(journal, true);
+                    try {
+                        journalOut.getChannel().truncate(journal.length() / JOURNAL_RECORD_SIZE * JOURNAL_RECORD_SIZE); // drop an incomplete record of an interrupted write
+                        journalOut.write(records.toByteArray());
+                        journalOut.getFD().sync();
+                    } finally {
+                        journalOut.close();
+                    }
+                    RandomAccessFile out = new RandomAccessFile(file, "rw"); // written after the journal, so that the binary file is not older
+                    try {
+                        FileChannel channel = out.getChannel();
+                        for (LinCalConfig config : changed) {
+                            int index = indexOf(config.getId());
+                            if (index == -1 || !LinCalConfigBinaryFormat.writePos(channel, index, config.getId(), config.getPos())) {
+                                written = false;
+                                break;
+                            }
+                        }
+                        channel.force(false);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    lock.channel().close();
+                }
+            }
+            if (!written) {
+                save(context);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            fileLock.writeLock().unlock();
         }
-        unlockConfigFile(context); //TODO if this throws an exception: ignoring error check at writer
-        if (writer.checkError()) {
-            throw new RuntimeException("Error while writing to configuration file.");
+    }
+
+    /**
+     * @param id
+     * @return the index of the entry with the given id or -1 if there is none
+     */
+    private int indexOf(int id) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getId() == id) {
+                return i;
+            }
         }
+        return -1;
     }
 
     /**
-     * Write the configuration represented by this instance to the configuration file. If the file
-     * is not present, it is created.
+     * Apply the positions saved in the journal to the entries loaded from the configuration file in
+     * the text format. An incomplete record at the end (from an interrupted write) is ignored.
      *
      * @param context
+     * @throws IOException
      */
-    public void save(Context context) {
-        save(context, null);
+    private void replayJournal(Context context) throws IOException {
+        File journal = new File(context.getFilesDir(), JOURNAL_FILE);
+        if (!journal.exists()) {
+            return;
+        }
+        ByteBuffer records = readFile(journal);
+        while (records.remaining() >= JOURNAL_RECORD_SIZE) {
+            int id = records.getInt();
+            int pos = records.getInt();
+            for (LinCalConfig config : entries) {
+                if (config.getId() == id && pos > config.getPos()) { // older records might already be contained in the configuration file (if interrupted while compacting)
+                    config.setPos(pos);
+                }
+            }
+        }
     }
 
     /**
@@ -189,27 +369,136 @@ public class LinCalConfigStore {
         return entries;
     }
 
-    private void lockConfigFile(Context context) {
+    /**
+     * Replace the configuration file and the file in the text format by files with the given
+     * content and clear the journal (which is contained in the new files if it has been loaded with
+     * the configuration). Blocks while another thread or process is writing the files.
+     *
+     * @param context
+     * @param nextId
+     * @param entries
+     * @param action  action to be performed after writing but before unlocking the file (can be
+     *                null)
+     */
+    private static void writeConfigFile(Context context, int nextId, List<LinCalConfig> entries, Runnable action) {
         File dir = context.getFilesDir();
-        // in increasing time intervals of up to ~15s try to lock file (6 times)
-        for (int t = 5; t <= 15625; t *= 5) {
-            // renaming should fail if it was already renamed
-            if (new File(dir, CONFIG_FILE).renameTo(new File(dir, CONFIG_FILE_OPENED))) {
-                return;
-            }
+        fileLock.writeLock().lock();
+        try {
+            FileLock lock = lockFile(context);
             try {
-                Thread.sleep(t, 0);
-            } catch (InterruptedException ex) {
-                // just try again
+                writeFile(new File(dir, CONFIG_FILE), nextId, entries, false); // first, so that the binary file is not older
+                writeFile(new File(dir, CONFIG_FILE_BINARY), nextId, entries, true);
+                new File(dir, JOURNAL_FILE).delete();
+                if (action != null) {
+                    action.run();
+                }
+            } finally {
+                lock.channel().close(); // also releases the lock
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace a file by a file with the given content, which is written to a temporary file first.
+     *
+     * @param file
+     * @param nextId
+     * @param entries
+     * @param binary  whether to write the binary format, otherwise the current version of the text
+     *                format is written
+     * @throws IOException
+     */
+    private static void writeFile(File file, int nextId, List<LinCalConfig> entries, boolean binary) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + TMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            if (binary) {
+                LinCalConfigBinaryFormat.write(nextId, entries, out);
+            } else {
+                writeText(nextId, entries, out);
             }
+            out.getFD().sync(); // the content must be on disk before the file replaces the old one
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new RuntimeException("Error: Could not replace config file.");
+        }
+    }
+
+    private static void writeText(int nextId, List<LinCalConfig> entries, OutputStream out) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        writer.println(nextId);
+        for (LinCalConfig linCalConfig : entries) {
+            writer.println(linCalConfig);
+        }
+        if (writer.checkError()) { // also flushes
+            throw new IOException("Error while writing to configuration file.");
         }
-        throw new RuntimeException("Error: Could not lock config file to read/write.");
     }
 
-    private void unlockConfigFile(Context context) {
+    /**
+     * @param context
+     * @return whether the binary configuration file exists and is not older than the file in the
+     * text format and the journal, i.e., they have not been written by an earlier version since
+     */
+    private static boolean isBinaryConfigFileCurrent(Context context) {
         File dir = context.getFilesDir();
-        if (!new File(dir, CONFIG_FILE_OPENED).renameTo(new File(dir, CONFIG_FILE))) {
-            throw new RuntimeException("Error: Could not unlock config file.");
+        long lastModified = new File(dir, CONFIG_FILE_BINARY).lastModified(); // 0 if it does not exist
+        return lastModified != 0 && lastModified >= new File(dir, CONFIG_FILE).lastModified() && lastModified >= new File(dir, JOURNAL_FILE).lastModified();
+    }
+
+    /**
+     * Lock the lock file, excluding other processes from writing the configuration file. Blocks
+     * until the lock is obtained.
+     *
+     * @param context
+     * @return the lock, to be released by closing its channel
+     * @throws IOException
+     */
+    private static FileLock lockFile(Context context) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(context.getFilesDir(), LOCK_FILE), "rw");
+        try {
+            return file.getChannel().lock();
+        } catch (IOException | RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Restore the configuration file if an earlier version of the app has been interrupted while
+     * it had the file renamed to {@link #CONFIG_FILE_OPENED}.
+     *
+     * @param context
+     */
+    private static void restoreConfigFile(Context context) {
+        File dir = context.getFilesDir();
+        File opened = new File(dir, CONFIG_FILE_OPENED);
+        if (!opened.exists()) {
+            return;
+        }
+        fileLock.writeLock().lock();
+        try {
+            FileLock lock = lockFile(context);
+            try {
+                File file = new File(dir, CONFIG_FILE);
+                if (file.exists()) {
+                    opened.delete(); // outdated
+                } else if (!opened.renameTo(file)) {
+                    throw new RuntimeException("Error: Could not restore config file.");
+                }
+            } finally {
+                lock.channel().close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            fileLock.writeLock().unlock();
         }
     }
 
@@ -230,20 +519,20 @@ public class LinCalConfigStore {
                 save(context, new Runnable() { // and save it in the new version, updating the version variable
                     @Override
                     public void run() {
-                        setVersion(pref, 1);
+                        setVersion(pref, VERSION);
                     }
                 });
                 return false;
             } else {
                 createInitialConfigurationFile(context, pref);
-                setVersion(pref, LinCalConfig.FORMAT_VERSION); // it is okay if program fails before setting version here, it would just do the same procedure of creating an initial file on next request
+                setVersion(pref, VERSION); // it is okay if program fails before setting version here, it would just do the same procedure of creating an initial file on next request
                 return false;
             }
         } else { // This is the general update case
             int fromVersion = pref.getInt(PREF_CONFIG_FILE_ENTRY_VERSION, -1);
-            if (fromVersion == LinCalConfig.FORMAT_VERSION) {
+            if (fromVersion == VERSION && isBinaryConfigFileCurrent(context)) {
                 return false;
-            } else if (fromVersion > LinCalConfig.FORMAT_VERSION) {
+            } else if (fromVersion > BINARY_FORMAT_VERSION) {
                 if (!(context instanceof Activity)) { // check whether the context is an Activity and dialogs can be shown - if not throw an exception
                     throw new RuntimeException("Application downgrade with incompatible config file formats - start app for further options.");
                 }
@@ -260,17 +549,17 @@ public class LinCalConfigStore {
                     public void onClick(DialogInterface dialog, int which) {
                         createInitialConfigurationFile(context, pref); // reset configuration file
                         Calendars.invalidate(); // the initial configuration file just created has to be loaded (e.g. to set correct nextId)
-                        setVersion(pref, LinCalConfig.FORMAT_VERSION); // set the current version
+                        setVersion(pref, VERSION); // set the current version
                     }
                 }).setCancelable(false); // the app may not be used without selecting an option
                 builder.show();
                 return true; // leave application with an empty ConfigStore - should it try to load the configuration again, another dialog will be shown if the previous one has not been exited with
-            } else { // have to update config file entries from a lower version to the current
+            } else { // have to write the config file entries in the current versions of both formats: from an older version of the text format, from the text file written by an earlier version after a downgrade or from the binary file if the text file has not been written
                 load(context, fromVersion, null);
                 save(context, new Runnable() {
                     @Override
                     public void run() {
-                        setVersion(pref, LinCalConfig.FORMAT_VERSION);
+                        setVersion(pref, VERSION);
                     }
                 });
                 return false; // to make sure the new format works, the file is directly loaded again
@@ -282,8 +571,17 @@ public class LinCalConfigStore {
         return context.getSharedPreferences(PREFFILE_CONFIG_FILE_ENTRY_VERSION, 0);
     }
 
-    private void setVersion(SharedPreferences pref, int version) {
-        pref.edit().putInt(PREF_CONFIG_FILE_ENTRY_VERSION, version).apply();
+    /**
+     * Store the version of the configuration. It is written synchronously, as the configuration
+     * file must not be interpreted in another version after a crash (e.g. a text file just
+     * written in the current version being read in an older one).
+     *
+     * @param pref
+     * @param version
+     * @return whether the version has been stored
+     */
+    private boolean setVersion(SharedPreferences pref, int version) {
+        return pref.edit().putInt(PREF_CONFIG_FILE_ENTRY_VERSION, version).commit();
     }
 
     /**
@@ -294,16 +592,6 @@ public class LinCalConfigStore {
      * @param pref
      */
     private void createInitialConfigurationFile(Context context, SharedPreferences pref) {
-        PrintWriter writer;
-        try {
-            //TODO check how to allow file to be public (other modes deprecated)
-            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(context.openFileOutput(CONFIG_FILE, Context.MODE_PRIVATE))));
-        } catch (FileNotFoundException ex) { // this should not occur, as when locking the file succeeds, it should exist
-            throw new RuntimeException(ex);
-        }
-        writer.println(0);
-        if (writer.checkError()) {
-            throw new RuntimeException("Error while creating initial configuration file.");
-        }
+        writeConfigFile(context, 0, Collections.<LinCalConfig>emptyList(), null);
     }
 }
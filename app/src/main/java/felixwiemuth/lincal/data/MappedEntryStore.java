@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Entries read directly from a buffer in the format of {@link LinCalBinaryFormat}, usually a
+ * read-only mapping of a file. Only views of the buffer are kept, so the heap used does not
+ * depend on the number of entries. Descriptions and links are decoded on access, the most
+ * recently decoded ones are cached.
+ * <p>
+ * Only absolute reads are performed on the views, thus an instance can be used by several threads.
+ *
+ * @author Felix Wiemuth
+ */
+class MappedEntryStore extends EntryStore {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long VIEWS_MEMORY_SIZE = 1024; // the views and caches, independent of the number of entries
+
+    private final LongBuffer dates;
+    private final IntBuffer descriptions;
+    private final IntBuffer links;
+    private final IntBuffer stringOffsets; // string j is stringData[stringOffsets[j]..stringOffsets[j+1])
+    private final ByteBuffer stringData;
+    private final StringCache descriptionCache = new StringCache();
+    private final StringCache linkCache = new StringCache();
+
+    /**
+     * @param dates         view of the entry dates
+     * @param descriptions  view of the description indexes
+     * @param links         view of the link indexes
+     * @param stringOffsets view of the m + 1 offsets of the string table
+     * @param stringData    view of the string data
+     */
+    MappedEntryStore(LongBuffer dates, IntBuffer descriptions, IntBuffer links, IntBuffer stringOffsets, ByteBuffer stringData) {
+        this.dates = dates;
+        this.descriptions = descriptions;
+        this.links = links;
+        this.stringOffsets = stringOffsets;
+        this.stringData = stringData;
+    }
+
+    @Override
+    int size() {
+        return dates.limit();
+    }
+
+    @Override
+    long getDate(int i) {
+        return dates.get(i);
+    }
+
+    @Override
+    String getDescription(int i) {
+        return string(i, getDescriptionUtf8(i), descriptionCache);
+    }
+
+    @Override
+    String getLink(int i) {
+        return string(i, getLinkUtf8(i), linkCache);
+    }
+
+    @Override
+    long getMemorySize() {
+        return VIEWS_MEMORY_SIZE;
+    }
+
+    @Override
+    ByteBuffer getDescriptionUtf8(int i) {
+        return utf8(descriptions.get(i));
+    }
+
+    @Override
+    ByteBuffer getLinkUtf8(int i) {
+        return utf8(links.get(i));
+    }
+
+    private static String string(int i, ByteBuffer utf8, StringCache cache) {
+        if (utf8 == null) {
+            return null;
+        }
+        String string = cache.get(i);
+        if (string == null) {
+            byte[] bytes = new byte[utf8.remaining()];
+            utf8.get(bytes);
+            string = new String(bytes, UTF_8);
+            cache.put(i, string);
+        }
+        return string;
+    }
+
+    /**
+     * @param index index into the string table or -1
+     * @return a view of the string's bytes or {@code null} if the index is -1
+     */
+    private ByteBuffer utf8(int index) {
+        if (index == -1) {
+            return null;
+        }
+        int from = stringOffsets.get(index);
+        int to = stringOffsets.get(index + 1);
+        if (from < 0 || to < from || to > stringData.limit()) {
+            throw new IndexOutOfBoundsException("Invalid string offset: " + from + ", " + to);
+        }
+        ByteBuffer range = stringData.duplicate();
+        range.limit(to);
+        range.position(from);
+        return range;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import felixwiemuth.lincal.util.ZoneOffsets;
+
+/**
+ * The notification times of the entries of a calendar for a certain earliest notification time and
+ * time zone. Kept together with the calendar by {@link CalendarMemoryCache}.
+ *
+ * @author Felix Wiemuth
+ */
+public class NotificationTimes {
+    private final int earliest; // minute of the day
+    private final ZoneOffsets offsets;
+    private final long[] times;
+
+    /**
+     * @param earliest the earliest notification time as minute of the day
+     * @param offsets  the time zone the times have been calculated for
+     * @param times    the notification times in milliseconds, by index of the entries
+     */
+    public NotificationTimes(int earliest, ZoneOffsets offsets, long[] times) {
+        this.earliest = earliest;
+        this.offsets = offsets;
+        this.times = times;
+    }
+
+    /**
+     * @param earliest
+     * @param offsets
+     * @return whether the times have been calculated for the given earliest notification time and
+     * time zone
+     */
+    public boolean isFor(int earliest, ZoneOffsets offsets) {
+        return this.earliest == earliest && this.offsets == offsets;
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the notification time of the entry in milliseconds
+     */
+    public long get(int index) {
+        return times[index];
+    }
+
+    /**
+     * @return the estimated heap used by the times in bytes
+     */
+    public long getMemorySize() {
+        return 8L * times.length;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+/**
+ * A small cache of strings decoded from a column, indexed by position. Each position maps to one
+ * slot, thus a string is replaced when a string with another position in the same slot is put.
+ * Slots are replaced atomically (as immutable objects), so an instance can be used by several
+ * threads without synchronization.
+ *
+ * @author Felix Wiemuth
+ */
+class StringCache {
+    private static final int SIZE = 64; // more than the number of entries visible at a time
+
+    private static class Slot {
+        private final int index;
+        private final String value;
+
+        private Slot(int index, String value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private final Slot[] slots = new Slot[SIZE];
+
+    /**
+     * @param index
+     * @return the string at the given position or {@code null} if it is not cached
+     */
+    String get(int index) {
+        Slot slot = slots[index & (SIZE - 1)];
+        return slot != null && slot.index == index ? slot.value : null;
+    }
+
+    void put(int index, String value) {
+        slots[index & (SIZE - 1)] = new Slot(index, value);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An immutable sequence of strings (which may be {@code null}) stored UTF-8 encoded.
+ * Implementations compress the strings in different ways, see {@link Builder}. Strings are decoded
+ * on access, the most recently decoded ones are cached.
+ *
+ * @author Felix Wiemuth
+ */
+abstract class StringColumn {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final StringCache cache = new StringCache();
+
+    String get(int i) {
+        String string = cache.get(i);
+        if (string == null) {
+            ByteBuffer utf8 = getUtf8(i);
+            if (utf8 == null) {
+                return null;
+            }
+            string = new String(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining(), UTF_8);
+            cache.put(i, string);
+        }
+        return string;
+    }
+
+    /**
+     * @param i
+     * @return the UTF-8 encoding of string {@code i} (the remaining bytes of a buffer backed by an
+     * array, which must not be modified) or {@code null} if the string is {@code null}
+     */
+    abstract ByteBuffer getUtf8(int i);
+
+    abstract int size();
+
+    /**
+     * @return an estimate of the heap used by this column in bytes
+     */
+    abstract long getMemorySize();
+
+    /**
+     * Estimate of the heap used by an array with the given number of bytes of data.
+     */
+    static long arraySize(long bytes) {
+        return 16 + (bytes + 7) / 8 * 8;
+    }
+
+    static class Builder {
+        private byte[] bytes = new byte[256];
+        private int length; // number of bytes used
+        private int[] offsets = new int[16]; // string i is bytes[offsets[i]..offsets[i+1])
+        private final BitSet nulls = new BitSet();
+        private int size;
+
+        Builder() {
+        }
+
+        void add(String string) {
+            add(string == null ? null : ByteBuffer.wrap(string.getBytes(UTF_8)));
+        }
+
+        /**
+         * Add a string given UTF-8 encoded.
+         *
+         * @param utf8 the remaining bytes of the buffer are added (without changing its position)
+         *             or {@code null} to add {@code null}
+         */
+        void add(ByteBuffer utf8) {
+            if (utf8 == null) {
+                nulls.set(size);
+            } else {
+                int n = utf8.remaining();
+                if (length + n > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + n));
+                }
+                utf8.duplicate().get(bytes, length, n);
+                length += n;
+            }
+            size++;
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            offsets[size] = length;
+        }
+
+        /**
+         * Build a column storing each distinct string once, suitable for strings which are often
+         * repeated.
+         *
+         * @param order the indexes of the strings added, in the order they should appear in the
+         *              column (a permutation of 0..size-1) or {@code null} to keep the order
+         * @return
+         */
+        StringColumn buildDictionary(int[] order) {
+            return DictionaryColumn.build(bytes, offsets, nulls, size, order);
+        }
+
+        /**
+         * Build a column storing each string by the length of the prefix it shares with the
+         * previous string and the remaining bytes, suitable for strings which are similar to their
+         * predecessors (e.g., links to consecutive pages of a site).
+         *
+         * @param order see {@link #buildDictionary(int[])}
+         * @return
+         */
+        StringColumn buildFrontCoded(int[] order) {
+            return FrontCodedColumn.build(bytes, offsets, nulls, size, order);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2018 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.parser;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.nio.channels.FileChannel;
+
+/**
+ * Provides the content of calendar files as a {@link ByteBuffer}. Simple files are memory-mapped,
+ * content URIs are mapped via the file descriptor provided by the content resolver if possible
+ * (otherwise, e.g. if the provider returns a pipe, the content is read into memory).
+ *
+ * @author Felix Wiemuth
+ */
+public class CalendarInput {
+
+    /**
+     * Size and modification time of a calendar file, which can be obtained without reading the
+     * file. Used to cheaply detect changes of a file.
+     */
+    public static class Stamp {
+        private static final Stamp UNKNOWN = new Stamp(-1, -1);
+
+        private final long size; // -1 if not known
+        private final long lastModified; // -1 if not known
+
+        private Stamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the size in bytes or -1 if not known
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the modification time in milliseconds or -1 if not known
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return whether size or modification time are known, otherwise changes cannot be
+         * detected with this stamp
+         */
+        public boolean isKnown() {
+            return size != -1 || lastModified != -1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (size ^ lastModified);
+        }
+    }
+
+    /**
+     * Decides for a line of a calendar file whether it is the last one needed, see {@link
+     * #readUntil(String, Context, LineMatcher)}.
+     */
+    public interface LineMatcher {
+        /**
+         * @param in   the content read so far
+         * @param from first byte of the line (inclusive)
+         * @param to   end of the line (exclusive, without the line break)
+         * @return
+         */
+        boolean matches(ByteBuffer in, int from, int to);
+    }
+
+    private CalendarInput() {
+    }
+
+    /**
+     * Get the size and modification time of a calendar file. For simple files, this is a stat of
+     * the file, for content URIs the content resolver is queried (for {@link
+     * OpenableColumns#SIZE} and {@link DocumentsContract.Document#COLUMN_LAST_MODIFIED}).
+     *
+     * @param path    simple path or content URI to the calendar file
+     * @param context
+     * @return the stamp, which is not known (see {@link Stamp#isKnown()}) if the file does not exist
+     * or the provider does not offer the information
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     */
+    public static Stamp stamp(String path, Context context) throws UnsupportedUriException {
+        Uri uri = Uri.parse(path);
+        String scheme = uri.getScheme();
+        if (scheme == null) {
+            File file = new File(path);
+            long lastModified = file.lastModified();
+            if (lastModified == 0) { // the file does not exist (or cannot be accessed)
+                return Stamp.UNKNOWN;
+            }
+            return new Stamp(file.length(), lastModified);
+        }
+        if (!scheme.equals("content")) {
+            throw new UnsupportedUriException(scheme);
+        }
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(uri, new String[]{OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null);
+        } catch (SecurityException | IllegalArgumentException ex) { // permission revoked or columns not supported by the provider
+            return Stamp.UNKNOWN;
+        }
+        if (cursor == null) {
+            return Stamp.UNKNOWN;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return Stamp.UNKNOWN; // the document does not exist (anymore)
+            }
+            return new Stamp(getLong(cursor, OpenableColumns.SIZE), getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index == -1 || cursor.isNull(index) ? -1 : cursor.getLong(index);
+    }
+
+    /**
+     * @param path    simple path or content URI to the calendar file
+     * @param context
+     * @return a read-only buffer with the file's content (position 0, limit the file's size)
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public static ByteBuffer read(String path, Context context) throws UnsupportedUriException, FileNotFoundException, IOException {
+        return readUntil(path, context, null);
+    }
+
+    /**
+     * Same as {@link #read(String, Context)} but if the content has to be read into memory, reading
+     * stops after the first line matched by the given matcher. Thus only the needed part of a file
+     * is on the heap.
+     *
+     * @param path    simple path or content URI to the calendar file
+     * @param context
+     * @param last    matches the last line needed (null to read the whole file)
+     * @return a read-only buffer with the file's content (position 0), which ends after the matched
+     * line if the file was read and not mapped
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public static ByteBuffer readUntil(String path, Context context, LineMatcher last) throws UnsupportedUriException, FileNotFoundException, IOException {
+        Uri uri = Uri.parse(path);
+        String scheme = uri.getScheme();
+        if (scheme != null) {
+            if (scheme.equals("content")) {
+                return readContent(uri, context, last);
+            } else {
+                throw new UnsupportedUriException(scheme);
+            }
+        } else {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                return map(file.getChannel());
+            } finally {
+                file.close(); // the mapping stays valid
+            }
+        }
+    }
+
+    private static ByteBuffer readContent(Uri uri, Context context, LineMatcher last) throws FileNotFoundException, IOException {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            return readFully(context.getContentResolver().openInputStream(uri), last);
+        }
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        try {
+            if (pfd.getStatSize() >= 0) { // the descriptor refers to a regular file
+                try {
+                    return map(in.getChannel());
+                } catch (IOException ex) {
+                    // the file cannot be mapped, read it instead
+                }
+            }
+            return readUntil(in, last);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    private static ByteBuffer readFully(InputStream in, LineMatcher last) throws IOException {
+        if (in == null) {
+            throw new FileNotFoundException();
+        }
+        try {
+            return readUntil(in, last);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the stream until its end or the end of the first line matched by {@code last}.
+     */
+    private static ByteBuffer readUntil(InputStream in, LineMatcher last) throws IOException {
+        if (last == null) {
+            return ByteBuffer.wrap(ByteStreams.toByteArray(in)).asReadOnlyBuffer();
+        }
+        byte[] bytes = new byte[8192];
+        int size = 0;
+        int lineStart = 0;
+        int n;
+        while ((n = in.read(bytes, size, bytes.length - size)) != -1) {
+            int end = size + n;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, end);
+            for (int i = size; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    if (last.matches(buffer, lineStart, i)) {
+                        return ByteBuffer.wrap(bytes, 0, i + 1).slice().asReadOnlyBuffer();
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            size = end;
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, size).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @param in
+     * @param length
+     * @return a 128-bit hash of the first {@code length} bytes of the buffer
+     */
+    public static HashCode hash(ByteBuffer in, int length) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        ByteBuffer prefix = in.duplicate();
+        prefix.position(0);
+        prefix.limit(length);
+        byte[] buffer = new byte[8192];
+        while (prefix.hasRemaining()) {
+            int n = Math.min(buffer.length, prefix.remaining());
+            prefix.get(buffer, 0, n);
+            hasher.putBytes(buffer, 0, n);
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * @param buffer
+     * @param from   first byte (inclusive)
+     * @param to     last byte (exclusive)
+     * @return a stream reading the given range of the buffer (without changing the buffer's
+     * position)
+     */
+    static InputStream stream(ByteBuffer buffer, int from, int to) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(to);
+        range.position(from);
+        return new ByteBufferInputStream(range);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
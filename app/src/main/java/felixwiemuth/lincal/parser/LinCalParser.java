@@ -18,20 +18,32 @@
 package felixwiemuth.lincal.parser;
 
 import android.content.Context;
-import android.net.Uri;
 
 import com.google.common.collect.EnumHashBiMap;
+import com.google.common.hash.HashCode;
 
-import java.io.FileInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 import java.util.ListIterator;
-import java.util.regex.Pattern;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import felixwiemuth.lincal.R;
 import felixwiemuth.lincal.data.CEntry;
 import felixwiemuth.lincal.data.LinCal;
+import felixwiemuth.lincal.util.Numbers;
 import felixwiemuth.lincal.util.Time;
 import felixwiemuth.linearfileparser.ArgKeyProcessor;
 import felixwiemuth.linearfileparser.IllegalLineException;
@@ -47,7 +59,24 @@ import felixwiemuth.linearfileparser.UnknownSectionException;
  */
 public class LinCalParser extends LinearFileParser {
 
-    private final static Pattern DATE_PATTERN = Pattern.compile("/");
+    private final static char DATE_SEPARATOR = '/';
+    private final static String CHARSET = "UTF-8";
+    private final static Charset UTF_8 = Charset.forName(CHARSET);
+
+    /**
+     * Minimum size in bytes of a calendar file for {@link #parseParallel(String, Context)} to split
+     * it into chunks.
+     */
+    private final static int PARALLEL_MIN_SIZE = 256 * 1024;
+    private final static int CHUNKS_PER_THREAD = 4;
+    /**
+     * Maximum length of byte arrays read by {@link Checkpoint#read(DataInput)}, which rejects
+     * corrupted data before allocating.
+     */
+    private final static int MAX_STORED_LENGTH = 1024 * 1024;
+
+    private final static String COMMENT_PREFIX = "#";
+    private final static String KEY_PREFIX = "@";
 
     //TODO use (non-translatable) string resources
     // sections
@@ -79,21 +108,37 @@ public class LinCalParser extends LinearFileParser {
     private final static String SET_DEFAULT_TIME = "st";
     private final static String ENTRY_DESCRIPTION = "descr";
 
+    // opcodes of the keys of the main section (see mainKeyOpcode())
+    private final static int OP_UNKNOWN = 0;
+    private final static int OP_SWITCH_DATE = 1;
+    private final static int OP_SET_TIME = 2;
+    private final static int OP_SET_DEFAULT_TIME = 3;
+    private final static int OP_ENTRY_DESCRIPTION = 4;
+
     private Context context;
-    private LinCal.Builder c;
-    private CEntry.Builder e;
+    private LinCalSink sink;
+    private Checkpoint checkpoint; // the checkpoint after the last parse
 
     // parsing state
     private final Calendar currentDate = Calendar.getInstance();
     private Time defaultTime;
     private Time currentTime; // the time set for the current entry - null if not set
     private boolean firstDateSet; // indicates that in MAIN section a date was set
+    private byte[] currentDescription; // the description set for the current entry (UTF-8) - null if not set
+    private int entryCount; // number of entries parsed
 
     /**
      *
      */
     public LinCalParser() {
-        super("#", "@", null, HEADER);
+        this(HEADER);
+    }
+
+    /**
+     * @param startSection the section the parser is in at the beginning of the input
+     */
+    private LinCalParser(String startSection) {
+        super(COMMENT_PREFIX, KEY_PREFIX, null, startSection);
 
         addSection(HEADER);
         addSection(MAIN);
@@ -102,64 +147,63 @@ public class LinCalParser extends LinearFileParser {
             @Override
             public void process(String arg, ListIterator it) throws ParseException {
                 changeSection(MAIN);
+                sink.endHeader();
             }
         });
 
         addKeyProcessor(HEADER, new ArgKeyProcessor(CAL_TITLE, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.title(arg);
+                sink.title(arg);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(CAL_AUTHOR, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.author(arg);
+                sink.author(arg);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(CAL_DESCRIPTION, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.description(arg);
+                sink.description(arg);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(CAL_VERSION, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.version(arg);
+                sink.version(arg);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(CAL_DATE, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                setDate(arg, 3, s(R.string.invalidDateSpecificationException_in_header));
-                c.date(currentDate);
+                setDate(arg, 3, R.string.invalidDateSpecificationException_in_header);
+                sink.date(currentDate);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(SET_ENTRY_DISPLAY_MODE_DATE, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.entryDisplayModeDate(parseEntryDisplayMode(arg));
+                sink.entryDisplayModeDate(parseEntryDisplayMode(arg), false);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(SET_ENTRY_DISPLAY_MODE_DESCRIPTION, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.entryDisplayModeDescription(parseEntryDisplayMode(arg));
+                sink.entryDisplayModeDescription(parseEntryDisplayMode(arg), false);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(FORCE_ENTRY_DISPLAY_MODE_DATE, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.entryDisplayModeDate(parseEntryDisplayMode(arg));
-                c.forceEntryDisplayModeDate(true);
+                sink.entryDisplayModeDate(parseEntryDisplayMode(arg), true);
             }
         });
         addKeyProcessor(HEADER, new ArgKeyProcessor(FORCE_ENTRY_DISPLAY_MODE_DESCRIPTION, true) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                c.entryDisplayModeDescription(parseEntryDisplayMode(arg));
-                c.forceEntryDisplayModeDescription(true);
+                sink.entryDisplayModeDescription(parseEntryDisplayMode(arg), true);
             }
         });
 
@@ -173,16 +217,8 @@ public class LinCalParser extends LinearFileParser {
                 if (!firstDateSet) {
                     throw new DateSpecificationRequiredException(getCurrentLineNumber(), s(R.string.dateSpecificationRequiredException));
                 }
-                if (currentTime != null) {
-                    currentTime.setAtCalendar(currentDate);
-                } else {
-                    defaultTime.setAtCalendar(currentDate);
-                }
-                currentTime = null;
-                e.date(currentDate).link(line);
-                c.addCEntry(e.build());
-                e = CEntry.builder(); //reset builder for next entry
-                currentDate.add(Calendar.DAY_OF_MONTH, 1);
+                byte[] link = line.getBytes(UTF_8);
+                sink.entry(nextEntry(ByteBuffer.wrap(link), 0, link.length));
                 return true;
             }
         });
@@ -190,20 +226,14 @@ public class LinCalParser extends LinearFileParser {
         addKeyProcessor(MAIN, new ArgKeyProcessor(SWITCH_DATE) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                if (!firstDateSet) { // this is the first date specification
-                    setDate(arg, 3, s(R.string.invalidDateSpecificationException_first));
-                    firstDateSet = true;
-                } else {
-                    setDate(arg);
-                }
+                switchDate(arg);
             }
         });
 
         addKeyProcessor(MAIN, new ArgKeyProcessor(SET_TIME) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                currentTime = new Time(0, 0);
-                setTime(arg, currentTime);
+                setCurrentTime(arg);
             }
         });
 
@@ -217,11 +247,221 @@ public class LinCalParser extends LinearFileParser {
         addKeyProcessor(MAIN, new ArgKeyProcessor(ENTRY_DESCRIPTION) {
             @Override
             public void _process(String arg, ListIterator<String> it) throws ParseException {
-                e.description(arg);
+                currentDescription = arg.getBytes(UTF_8);
             }
         });
     }
 
+    /**
+     * Create the entry for the given link at the current date and advance the date to the next
+     * day. Requires that the first date has been set. Description and link are stored in the
+     * entry UTF-8 encoded, they are only decoded when used.
+     *
+     * @param in   buffer containing the link (UTF-8)
+     * @param from first byte of the link (inclusive)
+     * @param to   last byte of the link (exclusive)
+     * @return
+     */
+    private CEntry nextEntry(ByteBuffer in, int from, int to) {
+        if (currentTime != null) {
+            currentTime.setAtCalendar(currentDate);
+        } else {
+            defaultTime.setAtCalendar(currentDate);
+        }
+        currentTime = null;
+        int descriptionLength = currentDescription == null ? 0 : currentDescription.length;
+        byte[] text = new byte[descriptionLength + to - from];
+        if (currentDescription != null) {
+            System.arraycopy(currentDescription, 0, text, 0, descriptionLength);
+        }
+        ByteBuffer link = in.duplicate();
+        link.position(from);
+        link.get(text, descriptionLength, to - from);
+        CEntry entry = new CEntry(currentDate.getTimeInMillis(), text, currentDescription == null ? -1 : descriptionLength, to - from);
+        currentDescription = null;
+        entryCount++;
+        currentDate.add(Calendar.DAY_OF_MONTH, 1);
+        return entry;
+    }
+
+    private void switchDate(String arg) throws InvalidDateSpecificationException {
+        if (!firstDateSet) { // this is the first date specification
+            setDate(arg, 3, R.string.invalidDateSpecificationException_first);
+            firstDateSet = true;
+        } else {
+            setDate(arg);
+        }
+    }
+
+    private void setCurrentTime(String arg) throws InvalidTimeSpecificationException {
+        currentTime = new Time(0, 0);
+        setTime(arg, currentTime);
+    }
+
+    /**
+     * Opcode of the key in the given range (without key prefix) of a line in the main section.
+     * Keys are distinguished by length and first character, thus the key table is fixed at compile
+     * time.
+     *
+     * @param in
+     * @param from
+     * @param to
+     * @return one of the {@code OP_} constants
+     */
+    private static int mainKeyOpcode(ByteBuffer in, int from, int to) {
+        switch (to - from) {
+            case 1:
+                switch (in.get(from)) {
+                    case 'd':
+                        return OP_SWITCH_DATE;
+                    case 't':
+                        return OP_SET_TIME;
+                }
+                break;
+            case 2:
+                if (in.get(from) == 's' && in.get(from + 1) == 't') {
+                    return OP_SET_DEFAULT_TIME;
+                }
+                break;
+            case 5:
+                if (in.get(from) == 'd' && equals(in, from, to, ENTRY_DESCRIPTION)) {
+                    return OP_ENTRY_DESCRIPTION;
+                }
+                break;
+        }
+        return OP_UNKNOWN;
+    }
+
+    /**
+     * Parse the given range of the main section. Lines are parsed with {@link
+     * #parseMainFast(ByteBuffer, int, int)}, a line it does not handle is parsed by the library with
+     * a separate parser (as a parser instance parses input only once) which continues from the
+     * state of this parser. Entries are passed to the sink as soon as they are read.
+     *
+     * @param in
+     * @param from offset of the first line (inclusive)
+     * @param to   offset of the end of the last line (exclusive)
+     * @throws IOException
+     * @throws ParseException if the range contains an error (the line number given is not
+     *                        meaningful, the error has to be reported by parsing the whole file)
+     */
+    private void parseMain(ByteBuffer in, int from, int to) throws IOException, ParseException {
+        int start = parseMainFast(in, from, to);
+        while (start < to) {
+            int end = start;
+            while (end < to && in.get(end) != '\n') {
+                end++;
+            }
+            end = Math.min(end + 1, to);
+            LinCalParser line = new LinCalParser(MAIN);
+            try {
+                line.init(context, sink);
+                line.continueFrom(this);
+                line._parse(CalendarInput.stream(in, start, end));
+                continueFrom(line);
+            } finally {
+                line.release();
+            }
+            start = parseMainFast(in, end, to);
+        }
+    }
+
+    /**
+     * Parse lines of the main section starting at the given offset without the generic machinery
+     * of {@link LinearFileParser}: lines are taken from the buffer directly and keys are dispatched
+     * with {@link #mainKeyOpcode(ByteBuffer, int, int)}. Entries are passed to the sink immediately.
+     * Only lines whose meaning is certain are handled (comments, empty lines, links and the main
+     * keys with an argument, without leading or trailing whitespace). Parsing stops before the
+     * first other line, which has to be parsed by the library. This is also the case for a line
+     * containing an error, which the library then reports in the same way (such a line may have
+     * changed the parsing state already, but the library fails on it again).
+     *
+     * @param in
+     * @param from offset of the first line (inclusive)
+     * @param to   offset of the end of the last line (exclusive)
+     * @return the offset of the first line not parsed or {@code to} if all lines were parsed
+     */
+    private int parseMainFast(ByteBuffer in, int from, int to) {
+        int start = from;
+        try {
+            while (start < to) {
+                int end = start;
+                int cr = -1; // position of the first carriage return in the line
+                byte b;
+                while (end < to && (b = in.get(end)) != '\n') {
+                    if (b == '\r' && cr == -1) {
+                        cr = end;
+                    }
+                    end++;
+                }
+                int lineEnd = cr == end - 1 ? cr : end;
+                if (cr != -1 && cr != end - 1) {
+                    return start;
+                } else if (lineEnd == start || in.get(start) == COMMENT_PREFIX.charAt(0)) {
+                    // empty line or comment
+                } else if ((in.get(start) & 0xFF) <= ' ' || (in.get(lineEnd - 1) & 0xFF) <= ' ') {
+                    return start;
+                } else if (in.get(start) == KEY_PREFIX.charAt(0)) {
+                    int sep = start + 1;
+                    while (sep < lineEnd && in.get(sep) != ' ') {
+                        sep++;
+                    }
+                    if (sep == lineEnd) {
+                        return start; // no argument
+                    }
+                    if (!isTrimmed(in, sep + 1, lineEnd)) {
+                        return start;
+                    }
+                    switch (mainKeyOpcode(in, start + 1, sep)) {
+                        case OP_SWITCH_DATE:
+                            switchDate(decode(in, sep + 1, lineEnd));
+                            break;
+                        case OP_SET_TIME:
+                            setCurrentTime(decode(in, sep + 1, lineEnd));
+                            break;
+                        case OP_SET_DEFAULT_TIME:
+                            setTime(decode(in, sep + 1, lineEnd), defaultTime);
+                            break;
+                        case OP_ENTRY_DESCRIPTION:
+                            currentDescription = copy(in, sep + 1, lineEnd); // not decoded
+                            break;
+                        default:
+                            return start;
+                    }
+                } else {
+                    if (!firstDateSet || !isTrimmed(in, start, lineEnd)) {
+                        return start;
+                    }
+                    sink.entry(nextEntry(in, start, lineEnd)); // the link is not decoded
+                }
+                start = Math.min(end + 1, to);
+            }
+        } catch (ParseException ex) {
+            return start;
+        }
+        return to;
+    }
+
+    /**
+     * Same as {@link #isTrimmed(String)} for the UTF-8 encoded string in the given range, decoding
+     * it only if it starts or ends with a non-ASCII character.
+     */
+    private static boolean isTrimmed(ByteBuffer in, int from, int to) {
+        if (from == to) {
+            return false;
+        }
+        byte first = in.get(from);
+        byte last = in.get(to - 1);
+        if (first < 0 || last < 0) { // might be a whitespace character encoded with several bytes
+            return isTrimmed(decode(in, from, to));
+        }
+        return !Character.isWhitespace(first) && !Character.isWhitespace(last);
+    }
+
+    private static boolean isTrimmed(String s) {
+        return !s.isEmpty() && !Character.isWhitespace(s.charAt(0)) && !Character.isWhitespace(s.charAt(s.length() - 1));
+    }
+
     private LinCal.EntryDisplayMode parseEntryDisplayMode(String arg) throws InvalidDisplayModeSpecificationException {
         LinCal.EntryDisplayMode mode = ENTRY_DISPLAY_MODE_STRING_MAP.inverse().get(arg);
         if (mode == null) {
@@ -234,7 +474,7 @@ public class LinCalParser extends LinearFileParser {
         return mode;
     }
 
-    private void setDate(String changeSpec, int min, String minError) throws InvalidDateSpecificationException {
+    private void setDate(String changeSpec, int min, int minError) throws InvalidDateSpecificationException {
         int changed = setDate(changeSpec);
         if (changed == 0 || changed < min) {
             StringBuilder sb = new StringBuilder();
@@ -242,7 +482,7 @@ public class LinCalParser extends LinearFileParser {
             if (changed == 0) {
                 sb.append(s(R.string.invalidDateSpecificationException_format));
             } else {
-                sb.append(s(R.string.invalidDateSpecificationException_expected_full)).append(" ").append(minError);
+                sb.append(s(R.string.invalidDateSpecificationException_expected_full)).append(" ").append(s(minError));
             }
             sb.append(".");
             throw new InvalidDateSpecificationException(getCurrentLineNumber(), sb.toString());
@@ -262,24 +502,30 @@ public class LinCalParser extends LinearFileParser {
      *                                           number (fields may have been changed before)
      */
     private int setDate(String changeSpec) throws InvalidDateSpecificationException {
-        int changed = 0;
-        String[] split = DATE_PATTERN.split(changeSpec);
-        if (split.length == 0 || split.length > 3) {
+        int fields = Numbers.countFields(changeSpec, DATE_SEPARATOR);
+        if (fields == 0 || fields > 3) {
             return 0;
         }
-        try {
-            currentDate.set(Calendar.DAY_OF_MONTH, Integer.parseInt(split[0]));
-            changed++;
-            if (split.length > 1) {
-                currentDate.set(Calendar.MONTH, Integer.parseInt(split[1]) - 1);
-                changed++;
-                if (split.length > 2) {
-                    currentDate.set(Calendar.YEAR, Integer.parseInt(split[2]));
-                    changed++;
-                }
+        int changed = 0;
+        int from = 0;
+        while (changed < fields) {
+            int to = Numbers.fieldEnd(changeSpec, from, DATE_SEPARATOR);
+            long value = Numbers.parseInt(changeSpec, from, to);
+            if (value == Numbers.NOT_AN_INT) {
+                throw new InvalidDateSpecificationException(getCurrentLineNumber(), s(R.string.invalidDateSpecificationException_base) + " " + s(R.string.invalidDateSpecificationException_format) + ".");
             }
-        } catch (NumberFormatException ex) {
-            throw new InvalidDateSpecificationException(getCurrentLineNumber(), s(R.string.invalidDateSpecificationException_base) + " " + s(R.string.invalidDateSpecificationException_format) + ".");
+            switch (changed) {
+                case 0:
+                    currentDate.set(Calendar.DAY_OF_MONTH, (int) value);
+                    break;
+                case 1:
+                    currentDate.set(Calendar.MONTH, (int) value - 1);
+                    break;
+                default:
+                    currentDate.set(Calendar.YEAR, (int) value);
+            }
+            changed++;
+            from = to + 1;
         }
         return changed;
     }
@@ -302,35 +548,738 @@ public class LinCalParser extends LinearFileParser {
      * @throws ParseException
      */
     public LinCal parse(String path, Context context) throws UnsupportedUriException, IOException, FileNotFoundException, UnknownKeyException, UnknownSectionException, ParseException {
+        return parse(CalendarInput.read(path, context), context);
+    }
+
+    /**
+     * Same as {@link #parse(String, Context)} for the content of a calendar file.
+     *
+     * @param in      the content of the file (position 0, limit the file's size), e.g. as returned
+     *                by {@link CalendarInput#read(String, Context)}
+     * @param context application context needed to provide String resources
+     * @return
+     * @throws IOException
+     * @throws UnknownKeyException
+     * @throws UnknownSectionException
+     * @throws ParseException
+     */
+    public LinCal parse(ByteBuffer in, Context context) throws IOException, UnknownKeyException, UnknownSectionException, ParseException {
+        return parseAll(in, context, false);
+    }
+
+    /**
+     * Parse a whole calendar file. The header is parsed by the library, the main section with
+     * {@link #parseMain(ByteBuffer, int, int)}. If the main section contains an error, the file is
+     * parsed completely by the library with a new parser to report the error with its line number.
+     *
+     * @param in
+     * @param context
+     * @param checkpoint whether to set the checkpoint of this parser
+     * @return
+     * @throws IOException
+     * @throws ParseException
+     */
+    private LinCal parseAll(ByteBuffer in, Context context, boolean checkpoint) throws IOException, ParseException {
+        int mainStart = headerEnd(in);
+        LinCal.Builder c = LinCal.builder();
+        try {
+            init(context, new BuilderSink(c));
+            _parse(CalendarInput.stream(in, 0, mainStart));
+            parseMain(in, mainStart, in.limit());
+            LinCal calendar = c.build();
+            if (checkpoint) {
+                this.checkpoint = createCheckpoint(in, entryCount);
+            }
+            return calendar;
+        } catch (ParseException | LinCal.Builder.MissingFieldException ex) {
+            // reported with the line number by parsing completely
+        } finally {
+            release();
+        }
+        LinCalParser parser = new LinCalParser();
+        c = LinCal.builder();
+        try {
+            parser.init(context, new BuilderSink(c));
+            parser._parse(CalendarInput.stream(in, 0, in.limit()));
+            LinCal calendar = parser.build(c);
+            if (checkpoint) {
+                this.checkpoint = parser.createCheckpoint(in, parser.entryCount);
+            }
+            return calendar;
+        } finally {
+            parser.release();
+        }
+    }
+
+    /**
+     * Parse only the header section of a calendar. Reading stops at the line which starts the main
+     * section, thus the time needed does not depend on the number of entries (if the file cannot be
+     * mapped, also only the header is read into memory). Errors in the main section are not
+     * detected.
+     *
+     * @param path    simple path or content URI to the calendar file
+     * @param context application context needed to provide String resources
+     * @return a calendar with the header information and no entries
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     * @throws IOException
+     * @throws FileNotFoundException
+     * @throws UnknownKeyException
+     * @throws UnknownSectionException
+     * @throws ParseException
+     */
+    public LinCal parseHeader(String path, Context context) throws UnsupportedUriException, IOException, FileNotFoundException, UnknownKeyException, UnknownSectionException, ParseException {
+        LinCal.Builder c = LinCal.builder();
+        try {
+            init(context, new BuilderSink(c));
+            ByteBuffer in = CalendarInput.readUntil(path, context, BEGIN_MAIN_LINE);
+            _parse(CalendarInput.stream(in, 0, headerEnd(in)));
+            return build(c);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Parse a calendar, passing header fields and entries to the given sink as soon as they are
+     * read instead of building a {@link LinCal}. Note that in contrast to {@link #parse(String,
+     * Context)} it is not checked whether all required header fields are present.
+     *
+     * @param path    simple path or content URI to the calendar file
+     * @param context application context needed to provide String resources
+     * @param sink    receives the parts of the calendar in file order
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     * @throws IOException
+     * @throws FileNotFoundException
+     * @throws UnknownKeyException
+     * @throws UnknownSectionException
+     * @throws ParseException
+     */
+    public void parse(String path, Context context, LinCalSink sink) throws UnsupportedUriException, IOException, FileNotFoundException, UnknownKeyException, UnknownSectionException, ParseException {
+        try {
+            init(context, sink);
+            ByteBuffer in = CalendarInput.read(path, context);
+            _parse(CalendarInput.stream(in, 0, in.limit()));
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Same as {@link #parse(String, Context)} but on larger calendars, the main section is split
+     * into chunks which are parsed in parallel. Chunks start at lines specifying a full date (with
+     * "@d d/m/y"), which makes them independent of the parsing state except for the default time.
+     * The resulting calendar is the same as the one obtained by {@link #parse(String, Context)}. If
+     * the calendar contains an error, it is parsed again sequentially to report the error in the
+     * same way. Afterwards, a checkpoint is available with {@link #getCheckpoint()}.
+     *
+     * @param path    simple path or content URI to the calendar file
+     * @param context application context needed to provide String resources
+     * @return
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     * @throws IOException
+     * @throws FileNotFoundException
+     * @throws UnknownKeyException
+     * @throws UnknownSectionException
+     * @throws ParseException
+     */
+    public LinCal parseParallel(String path, Context context) throws UnsupportedUriException, IOException, FileNotFoundException, UnknownKeyException, UnknownSectionException, ParseException {
+        checkpoint = null;
+        ByteBuffer in = CalendarInput.read(path, context);
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads > 1 && in.limit() >= PARALLEL_MIN_SIZE) {
+            List<Chunk> chunks = split(in, threads * CHUNKS_PER_THREAD);
+            if (chunks.size() > 1) {
+                LinCal calendar = parseChunks(in, chunks, context, threads);
+                if (calendar != null) {
+                    return calendar;
+                }
+            }
+        }
+        return parseAll(in, context, true);
+    }
+
+    /**
+     * Parse the given chunks in parallel, the first being parsed from the header section, the
+     * others from the main section. Sets the checkpoint of this parser on success.
+     *
+     * @param in
+     * @param chunks
+     * @param context
+     * @param threads
+     * @return the calendar or {@code null} if there was an error in any of the chunks
+     */
+    private LinCal parseChunks(final ByteBuffer in, List<Chunk> chunks, final Context context, int threads) {
+        final List<LinCalParser> parsers = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            parsers.add(chunk.from == 0 ? new LinCalParser() : new LinCalParser(MAIN));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunks.size()));
+        try {
+            final LinCal.Builder c = LinCal.builder();
+            List<Future<List<CEntry>>> results = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                final Chunk chunk = chunks.get(i);
+                final LinCalParser parser = parsers.get(i);
+                results.add(executor.submit(new Callable<List<CEntry>>() {
+                    @Override
+                    public List<CEntry> call() throws Exception {
+                        if (chunk.from == 0) { // the first chunk contains the header and adds its entries to the builder directly
+                            parser.parseChunk(in, chunk, context, new BuilderSink(c));
+                            return Collections.emptyList();
+                        } else {
+                            ListSink sink = new ListSink();
+                            parser.parseChunk(in, chunk, context, sink);
+                            return sink.entries;
+                        }
+                    }
+                }));
+            }
+            // Entries have to be added in the order of the file, thus in the order of chunks
+            for (Future<List<CEntry>> result : results) {
+                for (CEntry entry : result.get()) {
+                    c.addCEntry(entry);
+                }
+            }
+            int entries = 0;
+            for (LinCalParser parser : parsers) {
+                entries += parser.entryCount;
+            }
+            LinCal calendar = c.build();
+            // As chunks are independent, the state at the end of the file is the state of the parser of the last chunk
+            checkpoint = parsers.get(parsers.size() - 1).createCheckpoint(in, entries);
+            return calendar;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | LinCal.Builder.MissingFieldException ex) {
+            return null; // errors are reported by parsing sequentially
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void parseChunk(ByteBuffer in, Chunk chunk, Context context, LinCalSink sink) throws IOException, ParseException {
+        try {
+            initChunk(chunk, context, sink);
+            if (chunk.from > 0) { // the chunk is part of the main section
+                parseMain(in, chunk.from, chunk.to);
+            } else {
+                _parse(CalendarInput.stream(in, chunk.from, chunk.to));
+            }
+        } finally {
+            release();
+        }
+    }
+
+    private void initChunk(Chunk chunk, Context context, LinCalSink sink) throws InvalidTimeSpecificationException {
+        init(context, sink);
+        if (chunk.defaultTime != null) {
+            setTime(chunk.defaultTime, defaultTime);
+        }
+    }
+
+    /**
+     * A range of lines of a calendar file which can be parsed independently of the lines before.
+     */
+    private static class Chunk {
+        private final int from; // offset of the first byte (inclusive)
+        private final int to; // offset of the last byte (exclusive)
+        private final String defaultTime; // the argument of the last default time specification before this chunk or null if there is none
+
+        private Chunk(int from, int to, String defaultTime) {
+            this.from = from;
+            this.to = to;
+            this.defaultTime = defaultTime;
+        }
+    }
+
+    /**
+     * Split a calendar file into chunks of at least {@code in.limit() / maxChunks} bytes. A chunk
+     * other than the first starts with a line setting a full date such that it does not depend on
+     * the previous lines except for the default time. To be safe, no chunk is started after a line
+     * which might set a parsing state for the next entry. Lines are scanned on the bytes of the
+     * file, only arguments of default time specifications are decoded.
+     *
+     * @param in
+     * @param maxChunks
+     * @return
+     */
+    private static List<Chunk> split(ByteBuffer in, int maxChunks) {
+        List<Chunk> chunks = new ArrayList<>();
+        int limit = in.limit();
+        int minChunkSize = limit / maxChunks;
+        int from = 0;
+        String chunkDefaultTime = null;
+        String defaultTimeSpec = null;
+        boolean entrySeen = false; // an entry was added, thus the first date has been set
+        boolean entryPending = false; // there might be a state set for the next entry
+        int start = headerEnd(in);
+        while (start < limit) {
+            int end = start;
+            int cr = -1; // position of the first carriage return in the line
+            byte b;
+            while (end < limit && (b = in.get(end)) != '\n') {
+                if (b == '\r' && cr == -1) {
+                    cr = end;
+                }
+                end++;
+            }
+            int lineEnd = cr == end - 1 ? cr : end;
+            if (cr != -1 && cr != end - 1) {
+                entryPending = true; // the line might be split differently by the parser, do not guess how it is interpreted
+            } else if (lineEnd == start || in.get(start) == COMMENT_PREFIX.charAt(0)) {
+                // empty line or comment
+            } else if (in.get(start) == KEY_PREFIX.charAt(0)) {
+                int sep = start + 1;
+                while (sep < lineEnd && in.get(sep) != ' ') {
+                    sep++;
+                }
+                if (equals(in, start + 1, sep, SWITCH_DATE)) {
+                    if (entrySeen && !entryPending && start - from >= minChunkSize && isFullDate(in, sep + 1, lineEnd)) {
+                        chunks.add(new Chunk(from, start, chunkDefaultTime));
+                        from = start;
+                        chunkDefaultTime = defaultTimeSpec;
+                    }
+                } else if (equals(in, start + 1, sep, SET_DEFAULT_TIME)) {
+                    defaultTimeSpec = sep < lineEnd ? decode(in, sep + 1, lineEnd) : null;
+                } else {
+                    entryPending = true;
+                }
+            } else if ((in.get(start) & 0xFF) <= ' ') {
+                entryPending = true; // do not guess how the line is interpreted
+            } else {
+                entrySeen = true;
+                entryPending = false;
+            }
+            start = end + 1;
+        }
+        chunks.add(new Chunk(from, limit, chunkDefaultTime));
+        return chunks;
+    }
+
+    /**
+     * Checks whether the given range contains a date specification of the form "d/m/y" where each
+     * part consists of at most 9 digits with an optional sign (as accepted by {@link
+     * #setDate(String)}).
+     */
+    private static boolean isFullDate(ByteBuffer in, int from, int to) {
+        int parts = 0;
+        int i = from;
+        while (i < to) {
+            if (in.get(i) == '+' || in.get(i) == '-') {
+                i++;
+            }
+            int digits = 0;
+            while (i < to && in.get(i) >= '0' && in.get(i) <= '9') {
+                i++;
+                digits++;
+            }
+            if (digits == 0 || digits > 9) {
+                return false;
+            }
+            parts++;
+            if (i < to) {
+                if (in.get(i) != '/' || parts == 3) {
+                    return false;
+                }
+                i++;
+                if (i == to) {
+                    return false;
+                }
+            }
+        }
+        return parts == 3;
+    }
+
+    private static boolean equals(ByteBuffer in, int from, int to, String ascii) {
+        if (to - from != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (in.get(from + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer in, int from, int to) {
+        return new String(copy(in, from, to), UTF_8);
+    }
+
+    private static byte[] copy(ByteBuffer in, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer range = in.duplicate();
+        range.position(from);
+        range.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Parse only the lines appended to a calendar file since a previous parse which resulted in
+     * the given calendar and checkpoint. If the file was changed in another way than appending
+     * lines, {@code null} is returned and the calendar has to be parsed completely. Afterwards, a
+     * new checkpoint is available with {@link #getCheckpoint()}.
+     *
+     * @param path       simple path or content URI to the calendar file
+     * @param context    application context needed to provide String resources
+     * @param calendar   the calendar obtained by the previous parse
+     * @param checkpoint the checkpoint obtained by the previous parse
+     * @return the calendar with the entries from the appended lines added or {@code null} if the
+     * file has to be parsed completely (this is also the case if the appended lines contain an
+     * error, which should then be reported by parsing the whole file)
+     * @throws UnsupportedUriException if the URI given has a scheme which is not supported
+     * @throws IOException
+     * @throws FileNotFoundException
+     */
+    public LinCal parseAppended(String path, Context context, LinCal calendar, Checkpoint checkpoint) throws UnsupportedUriException, IOException, FileNotFoundException {
+        this.checkpoint = null;
+        ByteBuffer in = CalendarInput.read(path, context);
+        if (in.limit() < checkpoint.offset
+                || calendar.size() != checkpoint.entryCount
+                || !checkpoint.timeZone.equals(TimeZone.getDefault().getID())
+                || !CalendarInput.hash(in, checkpoint.offset).equals(checkpoint.prefixHash)) {
+            return null;
+        }
+        if (in.limit() == checkpoint.offset) { // nothing appended
+            this.checkpoint = checkpoint;
+            return calendar;
+        }
+        LinCalParser tail = new LinCalParser(MAIN);
+        LinCal.Builder c = LinCal.builder(calendar);
+        try {
+            tail.init(context, new BuilderSink(c));
+            tail.restore(checkpoint);
+            tail.parseMain(in, checkpoint.offset, in.limit());
+            LinCal result = c.build();
+            this.checkpoint = tail.createCheckpoint(in, tail.entryCount);
+            return result;
+        } catch (ParseException | LinCal.Builder.MissingFieldException ex) {
+            return null;
+        } finally {
+            tail.release();
+        }
+    }
+
+    /**
+     * @return the checkpoint after the last call of {@link #parseParallel(String, Context)} or
+     * {@link #parseAppended(String, Context, LinCal, Checkpoint)} or {@code null} if there is none
+     * (e.g. because the file does not end with a line break)
+     */
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * The state of the parser at the end of a calendar file. It allows to continue parsing when
+     * lines are appended to the file. Can be stored with {@link #write(DataOutput)}, so that
+     * parsing can also be continued for calendars loaded from a cache.
+     */
+    public static class Checkpoint {
+        private final int offset; // number of bytes parsed
+        private final HashCode prefixHash; // hash of the bytes parsed
+        private final String timeZone; // the time zone dates have been calculated in
+        private final long currentDate;
+        private final Time defaultTime;
+        private final Time currentTime;
+        private final byte[] currentDescription;
+        private final int entryCount;
+
+        private Checkpoint(int offset, HashCode prefixHash, String timeZone, long currentDate, Time defaultTime, Time currentTime, byte[] currentDescription, int entryCount) {
+            this.offset = offset;
+            this.prefixHash = prefixHash;
+            this.timeZone = timeZone;
+            this.currentDate = currentDate;
+            this.defaultTime = defaultTime;
+            this.currentTime = currentTime;
+            this.currentDescription = currentDescription;
+            this.entryCount = entryCount;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * Write this checkpoint in a binary form which can be read with {@link #read(DataInput)}.
+         *
+         * @param out
+         * @throws IOException
+         */
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(offset);
+            byte[] hash = prefixHash.asBytes();
+            out.writeInt(hash.length);
+            out.write(hash);
+            out.writeUTF(timeZone);
+            out.writeLong(currentDate);
+            out.writeInt(defaultTime.getMinuteOfDay());
+            out.writeInt(currentTime == null ? -1 : currentTime.getMinuteOfDay());
+            out.writeInt(currentDescription == null ? -1 : currentDescription.length);
+            if (currentDescription != null) {
+                out.write(currentDescription);
+            }
+            out.writeInt(entryCount);
+        }
+
+        /**
+         * Read a checkpoint written with {@link #write(DataOutput)}.
+         *
+         * @param in
+         * @return
+         * @throws IOException if the data is not a valid checkpoint
+         */
+        public static Checkpoint read(DataInput in) throws IOException {
+            int offset = in.readInt();
+            byte[] hash = readBytes(in, in.readInt());
+            String timeZone = in.readUTF();
+            long currentDate = in.readLong();
+            Time defaultTime = readTime(in.readInt());
+            Time currentTime = readTime(in.readInt());
+            int descriptionLength = in.readInt();
+            byte[] currentDescription = descriptionLength == -1 ? null : readBytes(in, descriptionLength);
+            int entryCount = in.readInt();
+            if (offset < 0 || hash.length == 0 || defaultTime == null || entryCount < 0) {
+                throw new IOException("Invalid checkpoint");
+            }
+            return new Checkpoint(offset, HashCode.fromBytes(hash), timeZone, currentDate, defaultTime, currentTime, currentDescription, entryCount);
+        }
+
+        private static byte[] readBytes(DataInput in, int length) throws IOException {
+            if (length < 0 || length > MAX_STORED_LENGTH) {
+                throw new IOException("Invalid checkpoint");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private static Time readTime(int minuteOfDay) {
+            return minuteOfDay < 0 ? null : new Time(minuteOfDay / 60, minuteOfDay % 60);
+        }
+    }
+
+    /**
+     * Create a checkpoint for the current state, assuming that the whole given file has been
+     * parsed.
+     *
+     * @param in         the content of the file parsed
+     * @param entryCount the number of entries parsed
+     * @return the checkpoint or {@code null} if parsing cannot be continued from the current state
+     */
+    private Checkpoint createCheckpoint(ByteBuffer in, int entryCount) {
+        int size = in.limit();
+        if (!firstDateSet || size == 0 || in.get(size - 1) != '\n') { // the last line might not be complete yet
+            return null;
+        }
+        return new Checkpoint(size, CalendarInput.hash(in, size), currentDate.getTimeZone().getID(), currentDate.getTimeInMillis(), copy(defaultTime), copy(currentTime), currentDescription, entryCount);
+    }
+
+    private void restore(Checkpoint checkpoint) {
+        currentDate.setTimeInMillis(checkpoint.currentDate);
+        defaultTime = copy(checkpoint.defaultTime);
+        currentTime = copy(checkpoint.currentTime);
+        currentDescription = checkpoint.currentDescription;
+        firstDateSet = true;
+        entryCount = checkpoint.entryCount;
+    }
+
+    /**
+     * Take over the parsing state of the given parser (which is not used anymore).
+     *
+     * @param parser
+     */
+    private void continueFrom(LinCalParser parser) {
+        currentDate.setTimeInMillis(parser.currentDate.getTimeInMillis());
+        defaultTime = parser.defaultTime;
+        currentTime = parser.currentTime;
+        currentDescription = parser.currentDescription;
+        firstDateSet = parser.firstDateSet;
+        entryCount = parser.entryCount;
+    }
+
+    private static Time copy(Time time) {
+        return time == null ? null : new Time(time.getHour(), time.getMinute());
+    }
+
+    private void init(Context context, LinCalSink sink) {
         this.context = context;
+        this.sink = sink;
         setResourceProvider(new AndroidResourceProvider(context));
         // Initialize parser
         currentDate.setTimeInMillis(0);
         defaultTime = new Time(0, 0);
         currentTime = null;
         firstDateSet = false;
-        c = LinCal.builder();
-        e = CEntry.builder();
-        // Check whether the file is a content URI or a simple file path, run parser
-        Uri uri = Uri.parse(path);
-        String scheme = uri.getScheme();
-        if (scheme != null) {
-            if (scheme.equals("content")) {
-                _parse(context.getContentResolver().openInputStream(uri));
-            } else {
-                throw new UnsupportedUriException(scheme);
-            }
-        } else {
-            _parse(new FileInputStream(path));
-        }
+        currentDescription = null;
+        entryCount = 0;
+        checkpoint = null;
+    }
+
+    private LinCal build(LinCal.Builder c) throws ParseException {
         try {
             return c.build();
         } catch (LinCal.Builder.MissingFieldException ex) {
             //NOTE: could do the check already with a "leave action" of the header section but that would require much more code
             throw newParseException(getCurrentLineNumber(), sf(R.string.parseException_missing_field, ex.getField()));
-        } finally {
-            context = null; // possibly free resources
-            setResourceProvider(null);
+        }
+    }
+
+    /**
+     * @param in
+     * @return the offset after the line starting the main section or the size of the file if
+     * there is no such line
+     */
+    private static int headerEnd(ByteBuffer in) {
+        int limit = in.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && in.get(end) != '\n') {
+                end++;
+            }
+            if (isBeginMainLine(in, start, end)) {
+                return Math.min(end + 1, limit);
+            }
+            start = end + 1;
+        }
+        return limit;
+    }
+
+    private static final CalendarInput.LineMatcher BEGIN_MAIN_LINE = new CalendarInput.LineMatcher() {
+        @Override
+        public boolean matches(ByteBuffer in, int from, int to) {
+            return isBeginMainLine(in, from, to);
+        }
+    };
+
+    private static boolean isBeginMainLine(ByteBuffer in, int from, int to) {
+        // trim as with String.trim()
+        while (from < to && (in.get(from) & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (in.get(to - 1) & 0xFF) <= ' ') {
+            to--;
+        }
+        String begin = KEY_PREFIX + BEGIN_MAIN;
+        if (to - from < begin.length() || !equals(in, from, from + begin.length(), begin)) {
+            return false;
+        }
+        return to - from == begin.length() || (in.get(from + begin.length()) & 0xFF) <= ' ';
+    }
+
+    private void release() {
+        context = null; // possibly free resources
+        sink = null;
+        setResourceProvider(null);
+    }
+
+    /**
+     * Adapter passing everything to a {@link LinCal.Builder}.
+     */
+    private static class BuilderSink implements LinCalSink {
+        private final LinCal.Builder c;
+
+        BuilderSink(LinCal.Builder c) {
+            this.c = c;
+        }
+
+        @Override
+        public void title(String title) {
+            c.title(title);
+        }
+
+        @Override
+        public void author(String author) {
+            c.author(author);
+        }
+
+        @Override
+        public void description(String description) {
+            c.description(description);
+        }
+
+        @Override
+        public void version(String version) {
+            c.version(version);
+        }
+
+        @Override
+        public void date(Calendar date) {
+            c.date(date);
+        }
+
+        @Override
+        public void entryDisplayModeDate(LinCal.EntryDisplayMode mode, boolean force) {
+            c.entryDisplayModeDate(mode);
+            if (force) {
+                c.forceEntryDisplayModeDate(true);
+            }
+        }
+
+        @Override
+        public void entryDisplayModeDescription(LinCal.EntryDisplayMode mode, boolean force) {
+            c.entryDisplayModeDescription(mode);
+            if (force) {
+                c.forceEntryDisplayModeDescription(true);
+            }
+        }
+
+        @Override
+        public void endHeader() {
+        }
+
+        @Override
+        public void entry(CEntry entry) {
+            c.addCEntry(entry);
+        }
+    }
+
+    /**
+     * Collects entries, ignoring the header.
+     */
+    private static class ListSink implements LinCalSink {
+        private final List<CEntry> entries = new ArrayList<>();
+
+        @Override
+        public void title(String title) {
+        }
+
+        @Override
+        public void author(String author) {
+        }
+
+        @Override
+        public void description(String description) {
+        }
+
+        @Override
+        public void version(String version) {
+        }
+
+        @Override
+        public void date(Calendar date) {
+        }
+
+        @Override
+        public void entryDisplayModeDate(LinCal.EntryDisplayMode mode, boolean force) {
+        }
+
+        @Override
+        public void entryDisplayModeDescription(LinCal.EntryDisplayMode mode, boolean force) {
+        }
+
+        @Override
+        public void endHeader() {
+        }
+
+        @Override
+        public void entry(CEntry entry) {
+            entries.add(entry);
         }
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.parser;
+
+import java.util.Calendar;
+
+import felixwiemuth.lincal.data.CEntry;
+import felixwiemuth.lincal.data.LinCal;
+
+/**
+ * Receives the parts of a calendar in the order they are encountered by {@link LinCalParser}. This
+ * allows to process calendars without keeping all entries in memory. Header fields are reported
+ * before {@link #endHeader()} is called, entries only after.
+ *
+ * @author Felix Wiemuth
+ */
+public interface LinCalSink {
+
+    void title(String title);
+
+    void author(String author);
+
+    void description(String description);
+
+    void version(String version);
+
+    /**
+     * @param date the calendar's date (only valid during the call, make a copy if needed)
+     */
+    void date(Calendar date);
+
+    /**
+     * @param mode
+     * @param force whether the mode was given with the "force" key
+     */
+    void entryDisplayModeDate(LinCal.EntryDisplayMode mode, boolean force);
+
+    /**
+     * @param mode
+     * @param force whether the mode was given with the "force" key
+     */
+    void entryDisplayModeDescription(LinCal.EntryDisplayMode mode, boolean force);
+
+    /**
+     * Called when the header section has been left, i.e. no further header fields will be
+     * reported.
+     */
+    void endHeader();
+
+    /**
+     * Called for every entry in the order of the calendar file (which is not necessarily sorted by
+     * date).
+     *
+     * @param entry
+     */
+    void entry(CEntry entry);
+}
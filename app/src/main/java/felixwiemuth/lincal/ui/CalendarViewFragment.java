@@ -40,15 +40,13 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.TimePicker;
 
-import java.util.Calendar;
-
 import felixwiemuth.lincal.Calendars;
-import felixwiemuth.lincal.Main;
 import felixwiemuth.lincal.NotificationService;
 import felixwiemuth.lincal.R;
 import felixwiemuth.lincal.data.CEntry;
 import felixwiemuth.lincal.data.LinCal;
 import felixwiemuth.lincal.data.LinCalConfig;
+import felixwiemuth.lincal.util.DateFormats;
 import felixwiemuth.lincal.util.ImplementationError;
 import felixwiemuth.lincal.util.Time;
 
@@ -66,6 +64,8 @@ public class CalendarViewFragment extends Fragment {
 
     private LinCal calendar;
     private int calendarPos;
+    private int calendarId;
+    private View currentView; // the view created by onCreateView() while not destroyed
     private CheckBox notificationsEnabled;
     private Time earliestNotificationTime;
     private TextView textViewEarliestNotificationTime;
@@ -75,6 +75,17 @@ public class CalendarViewFragment extends Fragment {
     private Spinner entryDisplayModeDescription;
     private Button buttonRemoveCalendar;
     private RecyclerView entryList;
+    /**
+     * Shows the new version of the calendar when its file has changed.
+     */
+    private final Calendars.OnCalendarChangedListener calendarChangedListener = new Calendars.OnCalendarChangedListener() {
+        @Override
+        public void onCalendarChanged(int id, LinCal calendar) {
+            if (id == calendarId && currentView != null) {
+                showCalendar(currentView, calendar);
+            }
+        }
+    };
 
     public static class TimePickerFragment extends DialogFragment implements TimePickerDialog.OnTimeSetListener {
         private int calendarPos;
@@ -93,16 +104,20 @@ public class CalendarViewFragment extends Fragment {
 
         public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
             Calendars calendars = Calendars.getInstance(getContext());
-            LinCalConfig config = calendars.getConfigByPos(calendarPos);
-            Time time = new Time(hourOfDay, minute);
-            config.setEarliestNotificationTime(time);
+            int id = calendars.getConfigByPos(calendarPos).getId();
+            final Time time = new Time(hourOfDay, minute);
+            calendars.updateConfig(getContext(), id, new Calendars.ConfigUpdate() {
+                @Override
+                public void apply(LinCalConfig config) {
+                    config.setEarliestNotificationTime(time);
+                }
+            });
             TextView textViewEarliestNotificationTime = (TextView) getActivity().findViewById(R.id.setting_earliest_notification_time);
             textViewEarliestNotificationTime.setText(time.toString());
-            calendars.save(getContext());
             // have to update the displayed notification times (times might have changed)
             RecyclerView recyclerView = (RecyclerView) getActivity().findViewById(R.id.entry_list_recycler_view);
             recyclerView.getAdapter().notifyDataSetChanged();
-            NotificationService.runWithCalendar(getContext(), config.getId()); //TODO reconsider when to call
+            NotificationService.runWithCalendar(getContext(), id); //TODO reconsider when to call
         }
     }
 
@@ -122,17 +137,15 @@ public class CalendarViewFragment extends Fragment {
         }
         AppCompatActivity activity = (AppCompatActivity) getActivity();
         calendarPos = getArguments().getInt(ARG_CALENDAR_POS);
-        Calendars calendars = Calendars.getInstance(getContext()); // loads calendar and makes sure all values in config are set (e.g. forceEntryDisplayMode values)
-        calendar = calendars.getCalendarByPos(getContext(), calendarPos);
+        Calendars calendars = Calendars.getInstance(getContext()); // the calendar is loaded in onCreateView()
         // Set ActionBar title to calendar title (as set by user) to show which calendar is selected (in narrow as well as wide)
         activity.getSupportActionBar().setTitle(calendars.getConfigByPos(calendarPos).getCalendarTitle());
+        calendarId = calendars.getConfigByPos(calendarPos).getId();
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-        View rootView = inflater.inflate(R.layout.calendar_view, container, false);
-        TextView titleView = (TextView) rootView.findViewById(R.id.cal_title);
-        TextView authorView = (TextView) rootView.findViewById(R.id.cal_author);
+        final View rootView = inflater.inflate(R.layout.calendar_view, container, false);
 
         notificationsEnabled = (CheckBox) rootView.findViewById(R.id.notifications_enabled);
         textViewEarliestNotificationTime = (TextView) rootView.findViewById(R.id.setting_earliest_notification_time);
@@ -140,75 +153,20 @@ public class CalendarViewFragment extends Fragment {
         entryDisplayModeDate = (Spinner) rootView.findViewById(R.id.setting_entry_display_mode_date);
         entryDisplayModeDescription = (Spinner) rootView.findViewById(R.id.setting_entry_display_mode_description);
         buttonRemoveCalendar = (Button) rootView.findViewById(R.id.button_remove_cal);
-
-        if (calendar == null) {
-            titleView.setText(R.string.cal_title_error_loading);
-            notificationsEnabled.setEnabled(false);
-            earliestNotificationTimeEnabled.setEnabled(false);
-            entryDisplayModeDate.setEnabled(false);
-            entryDisplayModeDescription.setEnabled(false);
-        } else {
-            titleView.setText(calendar.getTitle());
-            authorView.setText(calendar.getAuthor());
-            entryList = (RecyclerView) rootView.findViewById(R.id.entry_list_recycler_view);
-            SimpleItemRecyclerViewAdapter adapter = new SimpleItemRecyclerViewAdapter();
-            entryList.setAdapter(adapter);
-            ((TextView) rootView.findViewById(R.id.cal_descr)).setText(calendar.getDescription());
-            ((TextView) rootView.findViewById(R.id.cal_version)).setText(calendar.getVersion());
-            ((TextView) rootView.findViewById(R.id.cal_date)).setText(calendar.getDateStr());
-            if (calendar.hasForceEntryDisplayModeDate()) {
-                entryDisplayModeDate.setEnabled(false);
-            }
-            if (calendar.hasForceEntryDisplayModeDescription()) {
-                entryDisplayModeDescription.setEnabled(false);
-            }
-        }
+        entryList = (RecyclerView) rootView.findViewById(R.id.entry_list_recycler_view);
 
         ArrayAdapter<CharSequence> spinnerAdapter = ArrayAdapter.createFromResource(getContext(), R.array.setting_entry_display_mode_options, android.R.layout.simple_spinner_item);
         spinnerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         entryDisplayModeDate.setAdapter(spinnerAdapter);
         entryDisplayModeDescription.setAdapter(spinnerAdapter);
 
-        loadSettings(); // loading settings before adding listeners prevents them from firing due to initialization (e.g. Spinner)
-
-        if (calendar != null) {
-            // Set listeners
-            final View.OnClickListener saveSettingsListener = new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    saveSettings();
-                    NotificationService.runWithCalendar(getContext(), Calendars.getInstance(getContext()).getConfigByPos(calendarPos).getId()); //TODO reconsider when to call
-                }
-            };
-
-            notificationsEnabled.setOnClickListener(saveSettingsListener);
-            textViewEarliestNotificationTime.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    loadSettings(); // update earliestNotificationTime
-                    DialogFragment dialogFragment = new TimePickerFragment();
-                    Bundle arguments = new Bundle();
-                    arguments.putInt("hour", earliestNotificationTime.getHour());
-                    arguments.putInt("minute", earliestNotificationTime.getMinute());
-                    arguments.putInt("calendarPos", calendarPos);
-                    dialogFragment.setArguments(arguments);
-                    dialogFragment.show(getFragmentManager(), "timePicker");
-                }
-            });
-            earliestNotificationTimeEnabled.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    saveSettingsListener.onClick(v);
-                    // have to update the displayed notification times (only show when enabled)
-                    entryList.getAdapter().notifyDataSetChanged();
-                }
-            });
-            //TODO implement
-            //        onScreenOnEnabled = (CheckBox) rootView.findViewById(R.id.setting_show_notification_on_screen_on);
-            //        onScreenOnEnabled.setOnClickListener(saveSettingsListener);
-            entryDisplayModeDate.setOnItemSelectedListener(new AdapterViewOnItemSelectedListener(entryDisplayModeDate.getSelectedItemPosition(), saveSettingsListener));
-            entryDisplayModeDescription.setOnItemSelectedListener(new AdapterViewOnItemSelectedListener(entryDisplayModeDescription.getSelectedItemPosition(), saveSettingsListener));
-        }
+        currentView = rootView;
+        Calendars.addOnCalendarChangedListener(calendarChangedListener);
+        // Show the progress state until the calendar is loaded (settings cannot be changed before)
+        ((TextView) rootView.findViewById(R.id.cal_title)).setText(R.string.cal_title_loading);
+        rootView.findViewById(R.id.progress_loading).setVisibility(View.VISIBLE);
+        setSettingsEnabled(false);
+        loadSettings();
 
         buttonRemoveCalendar.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -245,9 +203,107 @@ public class CalendarViewFragment extends Fragment {
             }
         });
 
+        Calendars.getInstance(getContext()).getCalendarByPosAsync(getActivity(), calendarPos, new Calendars.OnCalendarLoadedListener() {
+            @Override
+            public void onCalendarLoaded(LinCal calendar) {
+                if (currentView == rootView) { // the view has not been destroyed in the meantime (might not be attached yet)
+                    showCalendar(rootView, calendar);
+                }
+            }
+        });
+
         return rootView;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        Calendars.getInstance(getContext()).checkForChangesAsync(getContext(), calendarId); // the file might have been edited while the calendar was not shown
+    }
+
+    @Override
+    public void onDestroyView() {
+        Calendars.removeOnCalendarChangedListener(calendarChangedListener);
+        currentView = null;
+        super.onDestroyView();
+    }
+
+    /**
+     * Leave the progress state and show the loaded calendar (or that it could not be loaded).
+     *
+     * @param rootView
+     * @param calendar the calendar or {@code null} if there was an error loading it
+     */
+    private void showCalendar(View rootView, LinCal calendar) {
+        this.calendar = calendar;
+        rootView.findViewById(R.id.progress_loading).setVisibility(View.GONE);
+        TextView titleView = (TextView) rootView.findViewById(R.id.cal_title);
+        if (calendar == null) {
+            titleView.setText(R.string.cal_title_error_loading);
+            return;
+        }
+        titleView.setText(calendar.getTitle());
+        ((TextView) rootView.findViewById(R.id.cal_author)).setText(calendar.getAuthor());
+        ((TextView) rootView.findViewById(R.id.cal_descr)).setText(calendar.getDescription());
+        ((TextView) rootView.findViewById(R.id.cal_version)).setText(calendar.getVersion());
+        ((TextView) rootView.findViewById(R.id.cal_date)).setText(calendar.getDateStr());
+        entryList.setAdapter(new SimpleItemRecyclerViewAdapter());
+        setSettingsEnabled(true);
+        if (calendar.hasForceEntryDisplayModeDate()) {
+            entryDisplayModeDate.setEnabled(false);
+        }
+        if (calendar.hasForceEntryDisplayModeDescription()) {
+            entryDisplayModeDescription.setEnabled(false);
+        }
+
+        loadSettings(); // loading settings (forced values are set when loading the calendar) before adding listeners prevents them from firing due to initialization (e.g. Spinner)
+
+        // Set listeners
+        final View.OnClickListener saveSettingsListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                saveSettings();
+                NotificationService.runWithCalendar(getContext(), Calendars.getInstance(getContext()).getConfigByPos(calendarPos).getId()); //TODO reconsider when to call
+            }
+        };
+
+        notificationsEnabled.setOnClickListener(saveSettingsListener);
+        textViewEarliestNotificationTime.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                loadSettings(); // update earliestNotificationTime
+                DialogFragment dialogFragment = new TimePickerFragment();
+                Bundle arguments = new Bundle();
+                arguments.putInt("hour", earliestNotificationTime.getHour());
+                arguments.putInt("minute", earliestNotificationTime.getMinute());
+                arguments.putInt("calendarPos", calendarPos);
+                dialogFragment.setArguments(arguments);
+                dialogFragment.show(getFragmentManager(), "timePicker");
+            }
+        });
+        earliestNotificationTimeEnabled.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                saveSettingsListener.onClick(v);
+                // have to update the displayed notification times (only show when enabled)
+                entryList.getAdapter().notifyDataSetChanged();
+            }
+        });
+        //TODO implement
+        //        onScreenOnEnabled = (CheckBox) rootView.findViewById(R.id.setting_show_notification_on_screen_on);
+        //        onScreenOnEnabled.setOnClickListener(saveSettingsListener);
+        entryDisplayModeDate.setOnItemSelectedListener(new AdapterViewOnItemSelectedListener(entryDisplayModeDate.getSelectedItemPosition(), saveSettingsListener));
+        entryDisplayModeDescription.setOnItemSelectedListener(new AdapterViewOnItemSelectedListener(entryDisplayModeDescription.getSelectedItemPosition(), saveSettingsListener));
+    }
+
+    private void setSettingsEnabled(boolean enabled) {
+        notificationsEnabled.setEnabled(enabled);
+        textViewEarliestNotificationTime.setEnabled(enabled);
+        earliestNotificationTimeEnabled.setEnabled(enabled);
+        entryDisplayModeDate.setEnabled(enabled);
+        entryDisplayModeDescription.setEnabled(enabled);
+    }
+
     // listener used for both {@link Spinner}s
     private class AdapterViewOnItemSelectedListener implements AdapterView.OnItemSelectedListener {
         int selected;
@@ -293,13 +349,12 @@ public class CalendarViewFragment extends Fragment {
             String dateStr = entry.getDateTimeStr(); //NOTE if changing expected length, adapt TextView size
             Calendars calendars = Calendars.getInstance(getContext());
             LinCalConfig config = calendars.getConfigByPos(calendarPos);
-            Calendar notificationTime = Calendars.calcNotificationTime(entry, config);
-            String notificationTimeStr = Main.dfTime.format(notificationTime.getTime());
-            if (config.isEarliestNotificationTimeEnabled() && notificationTime.after(entry.getDate())) {
-                dateStr += " (" + notificationTimeStr + ")";
+            long notificationTime = calendars.getNotificationMillis(calendar, position, config);
+            if (config.isEarliestNotificationTimeEnabled() && notificationTime > entry.getTimeInMillis()) {
+                dateStr += " (" + DateFormats.formatTime(notificationTime) + ")";
             }
             final String descr = entry.getDescription();
-            boolean isEntryDue = entry.getDate().getTime().getTime() <= System.currentTimeMillis();
+            boolean isEntryDue = entry.getTimeInMillis() <= System.currentTimeMillis();
             if (config.getEntryDisplayModeDate() == LinCal.EntryDisplayMode.SHOW_ALL
                     || config.getEntryDisplayModeDate() == LinCal.EntryDisplayMode.HIDE_FUTURE && isEntryDue) {
                 holder.dateView.setText(dateStr);
@@ -388,13 +443,16 @@ public class CalendarViewFragment extends Fragment {
     //NOTE it does not matter to save everything at each single change as the whole file is rewritten anyway
     private void saveSettings() {
         Calendars calendars = Calendars.getInstance(getContext());
-        LinCalConfig config = calendars.getConfigByPos(calendarPos);
-        config.setNotificationsEnabled(notificationsEnabled.isChecked());
-        config.setEarliestNotificationTimeEnabled(earliestNotificationTimeEnabled.isChecked());
-        //config.setOnScreenOn(onScreenOnEnabled.isChecked()); //TODO implement
-        config.setEntryDisplayModeDate(LinCal.EntryDisplayMode.values()[entryDisplayModeDate.getSelectedItemPosition()]);
-        config.setEntryDisplayModeDescription(LinCal.EntryDisplayMode.values()[entryDisplayModeDescription.getSelectedItemPosition()]);
-        calendars.save(getContext());
+        calendars.updateConfig(getContext(), calendars.getConfigByPos(calendarPos).getId(), new Calendars.ConfigUpdate() {
+            @Override
+            public void apply(LinCalConfig config) {
+                config.setNotificationsEnabled(notificationsEnabled.isChecked());
+                config.setEarliestNotificationTimeEnabled(earliestNotificationTimeEnabled.isChecked());
+                //config.setOnScreenOn(onScreenOnEnabled.isChecked()); //TODO implement
+                config.setEntryDisplayModeDate(LinCal.EntryDisplayMode.values()[entryDisplayModeDate.getSelectedItemPosition()]);
+                config.setEntryDisplayModeDescription(LinCal.EntryDisplayMode.values()[entryDisplayModeDescription.getSelectedItemPosition()]);
+            }
+        });
     }
 
     private void loadSettings() {
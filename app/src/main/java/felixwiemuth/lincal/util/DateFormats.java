@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats dates and times in the default locale and time zone. Can be used by several threads
+ * concurrently: each thread uses its own {@link DateFormat} instances (which are not thread-safe)
+ * and formatted strings are cached, as most dates are formatted repeatedly (e.g. when binding the
+ * visible entries of a calendar). Formats and caches are created again when the default locale or
+ * time zone changes, a change of the locale by {@link felixwiemuth.lincal.LocaleHelper} is taken
+ * into account immediately via {@link #reset()}.
+ *
+ * @author Felix Wiemuth
+ */
+public class DateFormats {
+    private static final int CACHE_SIZE = 512; // strings per kind of format
+    private static final long SECOND = 1000;
+
+    private static volatile DateFormats instance;
+
+    private final Locale locale;
+    private final ZoneOffsets offsets;
+    private final ThreadLocal<DateFormat> dayFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return DateFormat.getDateInstance(DateFormat.DEFAULT, locale);
+        }
+    };
+    private final ThreadLocal<DateFormat> timeFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return DateFormat.getTimeInstance(DateFormat.DEFAULT, locale);
+        }
+    };
+    private final ThreadLocal<DateFormat> dayTimeFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, locale);
+        }
+    };
+    // keys are local days and local seconds (the default formats do not show milliseconds)
+    private final Cache<Long, String> days = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+    private final Cache<Long, String> times = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+    private final Cache<Long, String> dayTimes = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    private DateFormats(Locale locale, ZoneOffsets offsets) {
+        this.locale = locale;
+        this.offsets = offsets;
+    }
+
+    private static DateFormats get() {
+        Locale locale = Locale.getDefault();
+        ZoneOffsets offsets = ZoneOffsets.getDefault();
+        DateFormats formats = instance;
+        if (formats == null || !formats.locale.equals(locale) || formats.offsets != offsets) {
+            formats = new DateFormats(locale, offsets);
+            instance = formats;
+        }
+        return formats;
+    }
+
+    /**
+     * Discard all formats and cached strings, e.g. because the locale has changed.
+     */
+    public static void reset() {
+        instance = null;
+    }
+
+    /**
+     * @param time in milliseconds
+     * @return the date at the given time
+     */
+    public static String formatDay(long time) {
+        DateFormats formats = get();
+        return formats.format(time, ZoneOffsets.floorDiv(formats.offsets.toLocal(time), ZoneOffsets.DAY), formats.days, formats.dayFormat);
+    }
+
+    /**
+     * @param time in milliseconds
+     * @return the time of day at the given time
+     */
+    public static String formatTime(long time) {
+        DateFormats formats = get();
+        long secondOfDay = ZoneOffsets.floorDiv(ZoneOffsets.floorMod(formats.offsets.toLocal(time), ZoneOffsets.DAY), SECOND);
+        return formats.format(time, secondOfDay, formats.times, formats.timeFormat);
+    }
+
+    /**
+     * @param time in milliseconds
+     * @return the date and time of day at the given time
+     */
+    public static String formatDayTime(long time) {
+        DateFormats formats = get();
+        return formats.format(time, ZoneOffsets.floorDiv(formats.offsets.toLocal(time), SECOND), formats.dayTimes, formats.dayTimeFormat);
+    }
+
+    /**
+     * @param time   the time to format
+     * @param key    identifies the string the format produces for {@code time}
+     * @param cache
+     * @param format
+     * @return
+     */
+    private String format(long time, long key, Cache<Long, String> cache, ThreadLocal<DateFormat> format) {
+        String string = cache.getIfPresent(key);
+        if (string == null) {
+            string = format.get().format(new Date(time));
+            cache.put(key, string);
+        }
+        return string;
+    }
+}
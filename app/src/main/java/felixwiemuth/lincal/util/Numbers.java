@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.util;
+
+/**
+ * Scanning of numbers and separated fields in strings without allocating objects.
+ *
+ * @author Felix Wiemuth
+ */
+public class Numbers {
+    /**
+     * Returned by {@link #parseInt(CharSequence, int, int)} if the range does not contain a valid
+     * integer.
+     */
+    public static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    private Numbers() {
+    }
+
+    /**
+     * Parse a decimal integer from a range of a character sequence. Accepts the same input as
+     * {@link Integer#parseInt(String)}.
+     *
+     * @param s
+     * @param from first character (inclusive)
+     * @param to   last character (exclusive)
+     * @return the integer or {@link #NOT_AN_INT} if the range does not contain a valid integer
+     */
+    public static long parseInt(CharSequence s, int from, int to) {
+        if (from >= to) {
+            return NOT_AN_INT;
+        }
+        int i = from;
+        boolean negative = false;
+        char first = s.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+            if (i == to) {
+                return NOT_AN_INT;
+            }
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0) {
+                return NOT_AN_INT;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return NOT_AN_INT;
+            }
+        }
+        if (negative) {
+            return -value;
+        }
+        return value > Integer.MAX_VALUE ? NOT_AN_INT : value;
+    }
+
+    /**
+     * Count the fields of a string separated by the given character, in the same way as {@link
+     * java.util.regex.Pattern#split(CharSequence)} does, i.e., trailing empty fields are not
+     * counted, but an empty string consists of one empty field.
+     *
+     * @param s
+     * @param separator
+     * @return
+     */
+    public static int countFields(CharSequence s, char separator) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == separator) {
+            end--;
+        }
+        if (end == 0) {
+            return s.length() == 0 ? 1 : 0;
+        }
+        int fields = 1;
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == separator) {
+                fields++;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @param s
+     * @param from      the start of the field
+     * @param separator
+     * @return the end of the field starting at {@code from} (exclusive)
+     */
+    public static int fieldEnd(CharSequence s, int from, char separator) {
+        int i = from;
+        while (i < s.length() && s.charAt(i) != separator) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -18,38 +18,46 @@
 package felixwiemuth.lincal.util;
 
 import java.util.Calendar;
-import java.util.regex.Pattern;
 
 /**
- * Represents a time consisting of hour and minute.
+ * Represents a time consisting of hour and minute, stored as minutes since the start of the day.
  *
  * @author Felix Wiemuth
  */
 public class Time {
-    public static final Pattern TIME_PATTERN = Pattern.compile(":");
+    public static final char TIME_SEPARATOR = ':';
 
-    private int hour;
-    private int minute;
+    private int minuteOfDay; // hour * 60 + minute
 
     public Time(int hour, int minute) {
-        this.hour = hour;
-        this.minute = minute;
+        this.minuteOfDay = hour * 60 + minute;
     }
 
     public int getHour() {
-        return hour;
+        return minuteOfDay / 60;
     }
 
     public int getMinute() {
-        return minute;
+        return minuteOfDay % 60;
+    }
+
+    /**
+     * @return the minutes since the start of the day
+     */
+    public int getMinuteOfDay() {
+        return minuteOfDay;
     }
 
     public boolean before(Calendar calendar) {
-        return (hour < calendar.get(Calendar.HOUR_OF_DAY) || hour == calendar.get(Calendar.HOUR_OF_DAY) && minute < calendar.get(Calendar.MINUTE));
+        return minuteOfDay < minuteOfDay(calendar);
     }
 
     public boolean after(Calendar calendar) {
-        return (hour > calendar.get(Calendar.HOUR_OF_DAY) || hour == calendar.get(Calendar.HOUR_OF_DAY) && minute > calendar.get(Calendar.MINUTE));
+        return minuteOfDay > minuteOfDay(calendar);
+    }
+
+    private static int minuteOfDay(Calendar calendar) {
+        return calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
     }
 
     /**
@@ -58,7 +66,7 @@ public class Time {
      */
     public boolean setMinute(int minute) {
         if (minute >= 0 && minute <= 59) {
-            this.minute = minute;
+            this.minuteOfDay = getHour() * 60 + minute;
             return true;
         } else {
             return false;
@@ -71,7 +79,7 @@ public class Time {
      */
     public boolean setHour(int hour) {
         if (hour >= 0 && hour <= 23) {
-            this.hour = hour;
+            this.minuteOfDay = hour * 60 + getMinute();
             return true;
         } else {
             return false;
@@ -85,30 +93,26 @@ public class Time {
      * @return
      */
     public boolean set(String timeSpec) {
-        String[] split = TIME_PATTERN.split(timeSpec);
-        if (split.length != 2) {
+        if (Numbers.countFields(timeSpec, TIME_SEPARATOR) != 2) {
             return false;
         }
-        int hour;
-        int minute;
-        try {
-            hour = Integer.parseInt(split[0]);
-            minute = Integer.parseInt(split[1]);
-        } catch (NumberFormatException ex) {
+        int hourEnd = Numbers.fieldEnd(timeSpec, 0, TIME_SEPARATOR);
+        long hour = Numbers.parseInt(timeSpec, 0, hourEnd);
+        long minute = Numbers.parseInt(timeSpec, hourEnd + 1, Numbers.fieldEnd(timeSpec, hourEnd + 1, TIME_SEPARATOR));
+        if (hour == Numbers.NOT_AN_INT || minute == Numbers.NOT_AN_INT) {
             return false;
         }
-        this.hour = hour;
-        this.minute = minute;
+        this.minuteOfDay = (int) hour * 60 + (int) minute;
         return true;
     }
 
     public void setAtCalendar(Calendar calendar) {
-        calendar.set(Calendar.HOUR_OF_DAY, hour);
-        calendar.set(Calendar.MINUTE, minute);
+        calendar.set(Calendar.HOUR_OF_DAY, getHour());
+        calendar.set(Calendar.MINUTE, getMinute());
     }
 
     @Override
     public String toString() {
-        return String.format("%02d", hour) + TIME_PATTERN.pattern() + String.format("%02d", minute);
+        return String.format("%02d", getHour()) + TIME_SEPARATOR + String.format("%02d", getMinute());
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.util;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Converts between instants (milliseconds since the epoch) and local times of a time zone without
+ * using {@link java.util.Calendar}. The offset of each day is cached in a small direct-mapped
+ * table, thus conversions usually neither consult the time zone's rules nor allocate objects.
+ *
+ * @author Felix Wiemuth
+ */
+public class ZoneOffsets {
+    public static final long MINUTE = 60 * 1000L;
+    public static final long DAY = 24 * 60 * MINUTE;
+
+    private static final int CACHE_SIZE = 1024; // must be a power of 2
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static volatile ZoneOffsets defaultInstance;
+
+    private final TimeZone zone;
+    private final int rawOffset;
+    /**
+     * Day (since the epoch, in UTC) in the upper and its offset in the lower 32 bits, only for days
+     * with a constant offset. Day and offset are stored in one value which is read and written
+     * atomically (a plain long could be torn on 32-bit VMs), so that they are consistent without
+     * locking.
+     */
+    private final AtomicLongArray cache = new AtomicLongArray(CACHE_SIZE);
+
+    private ZoneOffsets(TimeZone zone) {
+        this.zone = zone;
+        this.rawOffset = zone.getRawOffset();
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            cache.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Get the instance for the current default time zone. Obtain it once for a series of
+     * conversions, as determining the default time zone allocates objects.
+     *
+     * @return
+     */
+    public static ZoneOffsets getDefault() {
+        TimeZone zone = TimeZone.getDefault();
+        ZoneOffsets offsets = defaultInstance;
+        if (offsets == null || !offsets.zone.getID().equals(zone.getID())) {
+            offsets = new ZoneOffsets(zone);
+            defaultInstance = offsets;
+        }
+        return offsets;
+    }
+
+    /**
+     * @param time an instant
+     * @return the offset of local time to UTC at the given instant in milliseconds
+     */
+    public int getOffset(long time) {
+        int day = (int) floorDiv(time, DAY);
+        int slot = day & (CACHE_SIZE - 1);
+        long entry = cache.get(slot);
+        if (entry != EMPTY && (int) (entry >> 32) == day) {
+            return (int) entry;
+        }
+        long start = day * DAY;
+        int offset = zone.getOffset(start);
+        if (zone.getOffset(start + DAY - 1) != offset) { // there is a transition on this day
+            return zone.getOffset(time);
+        }
+        cache.set(slot, ((long) day << 32) | (offset & 0xFFFFFFFFL));
+        return offset;
+    }
+
+    /**
+     * @param time an instant
+     * @return the local time at the given instant, as milliseconds since the local epoch
+     */
+    public long toLocal(long time) {
+        return time + getOffset(time);
+    }
+
+    /**
+     * @param local a local time as milliseconds since the local epoch
+     * @return the corresponding instant (local times skipped or repeated by a transition are
+     * resolved in the same way as by {@link java.util.GregorianCalendar} on Android, using the
+     * offset at the local time interpreted in standard time)
+     */
+    public long toInstant(long local) {
+        return local - getOffset(local - rawOffset);
+    }
+
+    /**
+     * @param time an instant
+     * @return the minutes since the start of the local day at the given instant
+     */
+    public int getMinuteOfDay(long time) {
+        return (int) (floorMod(toLocal(time), DAY) / MINUTE);
+    }
+
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y < 0) ? q - 1 : q;
+    }
+
+    static long floorMod(long x, long y) {
+        long m = x % y;
+        return m < 0 ? m + y : m;
+    }
+}
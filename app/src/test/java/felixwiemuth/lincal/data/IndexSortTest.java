@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link IndexSort}, checking sorted keys, the recorded order and stability.
+ *
+ * @author Felix Wiemuth
+ */
+public class IndexSortTest {
+
+    @Test
+    public void sortsSmallInputs() {
+        for (int n = 0; n <= 70; n++) {
+            assertSorted(randomKeys(n, 10, n));
+        }
+    }
+
+    @Test
+    public void sortsWithManyEqualKeysStably() {
+        assertSorted(randomKeys(10000, 5, 1));
+    }
+
+    @Test
+    public void sortsSortedAndReversedInput() {
+        long[] keys = new long[5000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i / 3;
+        }
+        assertSorted(keys);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = -i / 3;
+        }
+        assertSorted(keys);
+    }
+
+    /**
+     * Large enough to be sorted in parallel (if there are several processors).
+     */
+    @Test
+    public void sortsLargeInput() {
+        assertSorted(randomKeys(300001, 100000, 2));
+    }
+
+    @Test
+    public void sortsOnlyGivenNumberOfKeys() {
+        long[] keys = {5, 3, 1, 0, -1};
+        int[] order = new int[keys.length];
+        IndexSort.sort(keys, order, 3);
+        assertTrue(Arrays.equals(new long[]{1, 3, 5, 0, -1}, keys));
+        assertEquals(2, order[0]);
+        assertEquals(1, order[1]);
+        assertEquals(0, order[2]);
+    }
+
+    private static long[] randomKeys(int n, int range, long seed) {
+        Random random = new Random(seed);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt(range) * 1000L * 60 * 60 * 24;
+        }
+        return keys;
+    }
+
+    /**
+     * Sort the keys and check that they are sorted, that the order gives their original
+     * positions and that equal keys keep their relative order.
+     */
+    private static void assertSorted(long[] original) {
+        long[] keys = original.clone();
+        int[] order = new int[keys.length];
+        IndexSort.sort(keys, order, keys.length);
+        long[] expected = original.clone();
+        Arrays.sort(expected);
+        assertTrue(Arrays.equals(expected, keys));
+        boolean[] seen = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(original[order[i]], keys[i]);
+            assertTrue(!seen[order[i]]);
+            seen[order[i]] = true;
+            if (i > 0 && keys[i] == keys[i - 1]) {
+                assertTrue(order[i] > order[i - 1]);
+            }
+        }
+    }
+}
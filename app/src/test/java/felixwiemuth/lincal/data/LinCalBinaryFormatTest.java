@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2018 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.TimeZone;
+
+import felixwiemuth.lincal.parser.LinCalParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of calendars parsed from text through {@link LinCalBinaryFormat}.
+ *
+ * @author Felix Wiemuth
+ */
+public class LinCalBinaryFormatTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HEADER = "@title Binary format\n"
+            + "@author Felix Wiemuth\n"
+            + "@descr Calendar with ümlauts and € signs\n"
+            + "@version 2.1\n"
+            + "@date 24/12/2017\n"
+            + "@setDateDisplayMode hideAll\n"
+            + "@forceDescrDisplayMode hideFuture\n"
+            + "@begin\n";
+
+    private static final String MAIN = "@st 08:30\n"
+            + "@d 1/1/2018\n"
+            + "http://example.org/1\n"
+            + "@descr First\n"
+            + "http://example.org/2\n"
+            + "@t 23:59\n"
+            + "@descr First\n"
+            + "http://example.org/2\n"
+            + "# comment\n"
+            + "\n"
+            + "@descr Über\n"
+            + "http://example.org/ß\n"
+            + "@d 30/12/2017\n" // entries before the previous ones, thus sorted when building
+            + "http://example.org/earlier\n";
+
+    @Test
+    public void parsedCalendarIsAsExpected() throws Exception {
+        LinCal calendar = parse(HEADER + MAIN);
+        assertEquals(LinCal.EntryDisplayMode.HIDE_ALL, calendar.getEntryDisplayModeDate());
+        assertTrue(calendar.hasForceEntryDisplayModeDescription());
+        assertEquals(5, calendar.size());
+        assertEquals("http://example.org/earlier", calendar.get(0).getLink()); // sorted by date
+        assertNull(calendar.get(0).getDescription());
+        assertEquals("Über", calendar.get(4).getDescription());
+    }
+
+    @Test
+    public void readReturnsParsedCalendar() throws Exception {
+        LinCal parsed = parse(HEADER + MAIN);
+        assertSameCalendar(parsed, LinCalBinaryFormat.read(write(parsed)));
+    }
+
+    @Test
+    public void mapReturnsParsedCalendar() throws Exception {
+        LinCal parsed = parse(HEADER + MAIN);
+        assertSameCalendar(parsed, LinCalBinaryFormat.map(write(parsed)));
+    }
+
+    @Test
+    public void mapReturnsParsedCalendarFromDirectBuffer() throws Exception {
+        LinCal parsed = parse(HEADER + MAIN);
+        ByteBuffer heap = write(parsed);
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.limit());
+        direct.put(heap);
+        direct.flip();
+        assertSameCalendar(parsed, LinCalBinaryFormat.map(direct.asReadOnlyBuffer()));
+    }
+
+    @Test
+    public void roundTripOfManyEntries() throws Exception {
+        StringBuilder main = new StringBuilder("@d 1/1/2000\n");
+        for (int i = 0; i < 10000; i++) {
+            if (i % 7 == 0) {
+                main.append("@descr Part ").append(i % 13).append('\n');
+            }
+            main.append("https://example.org/series/").append(i / 100).append("/page-").append(i).append('\n');
+        }
+        LinCal parsed = parse(HEADER + main);
+        assertSameCalendar(parsed, LinCalBinaryFormat.read(write(parsed)));
+        assertSameCalendar(parsed, LinCalBinaryFormat.map(write(parsed)));
+    }
+
+    @Test
+    public void roundTripWithoutEntries() throws Exception {
+        LinCal parsed = parse(HEADER);
+        assertEquals(0, parsed.size());
+        assertSameCalendar(parsed, LinCalBinaryFormat.read(write(parsed)));
+        assertSameCalendar(parsed, LinCalBinaryFormat.map(write(parsed)));
+    }
+
+    @Test(expected = LinCalBinaryFormat.InvalidFormatException.class)
+    public void readRejectsOtherData() throws Exception {
+        LinCalBinaryFormat.read(ByteBuffer.wrap((HEADER + MAIN).getBytes(UTF_8)));
+    }
+
+    @Test(expected = LinCalBinaryFormat.InvalidFormatException.class)
+    public void mapRejectsTruncatedData() throws Exception {
+        ByteBuffer in = write(parse(HEADER + MAIN));
+        in.limit(in.limit() - 1);
+        LinCalBinaryFormat.map(in);
+    }
+
+    @Test(expected = LinCalBinaryFormat.InvalidFormatException.class)
+    public void readRejectsOtherTimeZone() throws Exception {
+        ByteBuffer in = write(parse(HEADER + MAIN));
+        TimeZone timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(timeZone.getID().equals("Asia/Tokyo") ? "Europe/Berlin" : "Asia/Tokyo"));
+        try {
+            LinCalBinaryFormat.read(in);
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+    }
+
+    @Test(expected = LinCalBinaryFormat.InvalidFormatException.class)
+    public void readRejectsInvalidDescriptionIndex() throws Exception {
+        LinCalBinaryFormat.read(withDescriptionIndex(parse(HEADER + MAIN), 0, 1000));
+    }
+
+    @Test(expected = LinCalBinaryFormat.InvalidFormatException.class)
+    public void mapRejectsInvalidDescriptionIndex() throws Exception {
+        LinCalBinaryFormat.map(withDescriptionIndex(parse(HEADER + MAIN), 0, 1000));
+    }
+
+    @Test(expected = LinCalBinaryFormat.InvalidFormatException.class)
+    public void mapRejectsNegativeLinkIndex() throws Exception {
+        LinCal calendar = parse(HEADER + MAIN);
+        ByteBuffer in = withDescriptionIndex(calendar, 0, 0);
+        in.putInt(descriptionIndexesOffset(calendar) + 4 * calendar.size(), -2); // link of the first entry
+        LinCalBinaryFormat.map(in);
+    }
+
+    private static LinCal parse(String calendar) throws Exception {
+        return new LinCalParser().parse(ByteBuffer.wrap(calendar.getBytes(UTF_8)), null);
+    }
+
+    private static ByteBuffer write(LinCal calendar) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LinCalBinaryFormat.write(calendar, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * @return the calendar in binary form with the description index of the given entry replaced
+     */
+    private static ByteBuffer withDescriptionIndex(LinCal calendar, int entry, int index) throws Exception {
+        ByteBuffer in = write(calendar);
+        in.putInt(descriptionIndexesOffset(calendar) + 4 * entry, index);
+        return in;
+    }
+
+    private static int descriptionIndexesOffset(LinCal calendar) {
+        int header = 8 + 5 * 4 + 8 + 3 + 4; // fixed-size fields and string lengths
+        for (String string : new String[]{calendar.getDate().getTimeZone().getID(), calendar.getTitle(), calendar.getAuthor(), calendar.getDescription(), calendar.getVersion()}) {
+            header += string.getBytes(UTF_8).length;
+        }
+        return (header + 7) / 8 * 8 + 8 * calendar.size();
+    }
+
+    private static void assertSameCalendar(LinCal expected, LinCal actual) {
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getAuthor(), actual.getAuthor());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getDate().getTimeInMillis(), actual.getDate().getTimeInMillis());
+        assertEquals(expected.getEntryDisplayModeDate(), actual.getEntryDisplayModeDate());
+        assertEquals(expected.getEntryDisplayModeDescription(), actual.getEntryDisplayModeDescription());
+        assertEquals(expected.hasForceEntryDisplayModeDate(), actual.hasForceEntryDisplayModeDate());
+        assertEquals(expected.hasForceEntryDisplayModeDescription(), actual.hasForceEntryDisplayModeDescription());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getEntryTimeInMillis(i), actual.getEntryTimeInMillis(i));
+            assertEquals(expected.get(i).getDescription(), actual.get(i).getDescription());
+            assertEquals(expected.get(i).getLink(), actual.get(i).getLink());
+        }
+    }
+}
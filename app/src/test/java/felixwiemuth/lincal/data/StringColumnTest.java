@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.data;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link StringColumn} implementations {@link DictionaryColumn} and {@link
+ * FrontCodedColumn}.
+ *
+ * @author Felix Wiemuth
+ */
+public class StringColumnTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final List<String> STRINGS = Arrays.asList(
+            "http://example.org/a/1",
+            "http://example.org/a/2",
+            null,
+            "http://example.org/a/2",
+            "",
+            "http://example.org/a/10",
+            "http://example.org/b/ü€",
+            "http://example.org/b/ü€x",
+            null,
+            "http://other.org/",
+            "http://example.org/a/1");
+
+    @Test
+    public void dictionaryColumnKeepsStrings() {
+        assertColumn(STRINGS, builder(STRINGS).buildDictionary(null));
+    }
+
+    @Test
+    public void frontCodedColumnKeepsStrings() {
+        assertColumn(STRINGS, builder(STRINGS).buildFrontCoded(null));
+    }
+
+    @Test
+    public void dictionaryColumnAppliesOrder() {
+        int[] order = reverseOrder(STRINGS.size());
+        assertColumn(reversed(STRINGS), builder(STRINGS).buildDictionary(order));
+    }
+
+    @Test
+    public void frontCodedColumnAppliesOrder() {
+        int[] order = reverseOrder(STRINGS.size());
+        assertColumn(reversed(STRINGS), builder(STRINGS).buildFrontCoded(order));
+    }
+
+    /**
+     * More strings than {@link FrontCodedColumn#RESTART_INTERVAL}, so that strings are rebuilt
+     * from records after a restart.
+     */
+    @Test
+    public void frontCodedColumnKeepsManyStrings() {
+        List<String> strings = manyStrings();
+        assertColumn(strings, builder(strings).buildFrontCoded(null));
+        assertColumn(reversed(strings), builder(strings).buildFrontCoded(reverseOrder(strings.size())));
+    }
+
+    @Test
+    public void dictionaryColumnKeepsManyStrings() {
+        List<String> strings = manyStrings();
+        assertColumn(strings, builder(strings).buildDictionary(null));
+        assertColumn(reversed(strings), builder(strings).buildDictionary(reverseOrder(strings.size())));
+    }
+
+    @Test
+    public void dictionaryColumnStoresRepeatedStringsOnce() {
+        List<String> distinct = new ArrayList<>();
+        List<String> repeated = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            distinct.add("Description number " + i);
+            repeated.add("Description number " + i % 10);
+        }
+        assertTrue(builder(repeated).buildDictionary(null).getMemorySize() < builder(distinct).buildDictionary(null).getMemorySize());
+    }
+
+    @Test
+    public void frontCodedColumnStoresSharedPrefixesOnce() {
+        List<String> strings = manyStrings();
+        long plain = 0;
+        for (String string : strings) {
+            plain += string == null ? 0 : string.getBytes(UTF_8).length;
+        }
+        assertTrue(builder(strings).buildFrontCoded(null).getMemorySize() < plain);
+    }
+
+    @Test
+    public void emptyColumns() {
+        List<String> strings = new ArrayList<>();
+        assertColumn(strings, builder(strings).buildDictionary(null));
+        assertColumn(strings, builder(strings).buildFrontCoded(null));
+    }
+
+    private static StringColumn.Builder builder(List<String> strings) {
+        StringColumn.Builder builder = new StringColumn.Builder();
+        for (int i = 0; i < strings.size(); i++) {
+            if (i % 2 == 0) {
+                builder.add(strings.get(i));
+            } else { // also add strings encoded, in a buffer with other content around them
+                String string = strings.get(i);
+                if (string == null) {
+                    builder.add((ByteBuffer) null);
+                } else {
+                    byte[] bytes = ("<" + string + ">").getBytes(UTF_8);
+                    ByteBuffer utf8 = ByteBuffer.wrap(bytes, 1, bytes.length - 2);
+                    builder.add(utf8);
+                    assertEquals(1, utf8.position());
+                }
+            }
+        }
+        return builder;
+    }
+
+    private static void assertColumn(List<String> expected, StringColumn column) {
+        assertEquals(expected.size(), column.size());
+        for (int i = 0; i < expected.size(); i++) {
+            String string = expected.get(i);
+            assertEquals(string, column.get(i));
+            assertEquals(string, column.get(i)); // cached
+            ByteBuffer utf8 = column.getUtf8(i);
+            if (string == null) {
+                assertNull(utf8);
+            } else {
+                byte[] bytes = new byte[utf8.remaining()];
+                utf8.get(bytes);
+                assertEquals(string, new String(bytes, UTF_8));
+            }
+        }
+    }
+
+    private static List<String> manyStrings() {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            strings.add(i % 17 == 0 ? null : "https://example.org/series/" + i / 50 + "/page-" + i + (i % 3 == 0 ? "/ä" : ""));
+        }
+        return strings;
+    }
+
+    private static int[] reverseOrder(int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = size - 1 - i;
+        }
+        return order;
+    }
+
+    private static List<String> reversed(List<String> strings) {
+        List<String> reversed = new ArrayList<>(strings.size());
+        for (int i = strings.size() - 1; i >= 0; i--) {
+            reversed.add(strings.get(i));
+        }
+        return reversed;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.lincal.parser;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+
+import felixwiemuth.lincal.data.LinCal;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Microbenchmark of {@link LinCalParser#parse(ByteBuffer, android.content.Context)}, printing the
+ * lines parsed per second. Calendars are generated with a date per 20 links and times and
+ * descriptions in between, once with only regular lines and once with some lines which have to be
+ * parsed by the library (indented lines).
+ *
+ * @author Felix Wiemuth
+ */
+public class LinCalParserBenchmark {
+
+    private static final int ENTRIES = 200000;
+    private static final int WARMUP_RUNS = 10;
+    private static final int RUNS = 10;
+
+    @Test
+    public void regularLines() throws Exception {
+        benchmark("regular lines", 0);
+    }
+
+    @Test
+    public void withIndentedLines() throws Exception {
+        benchmark("1% indented lines", 100);
+    }
+
+    /**
+     * @param name
+     * @param indentEvery indent every n-th link (0 for none)
+     */
+    private static void benchmark(String name, int indentEvery) throws Exception {
+        int[] lines = new int[1];
+        ByteBuffer in = generate(ENTRIES, indentEvery, lines);
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            parse(in);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            LinCal calendar = parse(in);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(ENTRIES, calendar.size());
+        }
+        System.out.println(String.format(Locale.US, "%s: %d lines in %.1f ms, %.0f lines/s", name, lines[0], best / 1e6, lines[0] / (best / 1e9)));
+    }
+
+    private static LinCal parse(ByteBuffer in) throws Exception {
+        return new LinCalParser().parse(in, null);
+    }
+
+    private static ByteBuffer generate(int entries, int indentEvery, int[] lines) {
+        StringBuilder sb = new StringBuilder("@title Benchmark\n@author LinCal\n@descr Generated calendar\n@version 1\n@date 1/1/2000\n@begin\n@st 09:00\n");
+        lines[0] = 7;
+        Calendar date = new GregorianCalendar(2000, Calendar.JANUARY, 1);
+        for (int i = 0; i < entries; i++) {
+            if (i % 20 == 0) {
+                sb.append("@d ").append(date.get(Calendar.DAY_OF_MONTH)).append('/').append(date.get(Calendar.MONTH) + 1).append('/').append(date.get(Calendar.YEAR)).append('\n');
+                date.add(Calendar.DAY_OF_MONTH, 20);
+                lines[0]++;
+            }
+            if (i % 4 == 0) {
+                sb.append("@t ").append(10 + i % 8).append(':').append(10 + i % 50).append('\n');
+                lines[0]++;
+            }
+            if (i % 3 == 0) {
+                sb.append("@descr Topic ").append(i % 997).append('\n');
+                lines[0]++;
+            }
+            if (indentEvery > 0 && i % indentEvery == 0) {
+                sb.append("  ");
+            }
+            sb.append("https://example.org/articles/").append(i).append(".html\n");
+            lines[0]++;
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(Charset.forName("UTF-8"))).asReadOnlyBuffer();
+    }
+}